@@ -0,0 +1,128 @@
+package com.example.android.habitapp.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.habitapp.data.HabitAnalytics.HabitStats;
+import com.example.android.habitapp.data.HabitContract.HabitEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures how the partitioned database scans of {@link HabitAnalytics} scale with the number
+ * of threads, over a large habits table on a device, and logs the timings.
+ *
+ * The table lives in a database of its own, so the app's data is not touched. The row count
+ * can be changed with the scanRows instrumentation argument.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HabitAnalyticsScanBenchmark {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = HabitAnalyticsScanBenchmark.class.getSimpleName();
+
+    /** Name of the database file the benchmark creates and deletes */
+    private static final String DATABASE_NAME = "habits-scan-benchmark";
+
+    /** Instrumentation argument with the number of rows */
+    private static final String ARG_ROWS = "scanRows";
+
+    private static final String DEFAULT_ROWS = "200000";
+
+    /** Most threads to scan with, the read connections of the pool in write-ahead logging */
+    private static final int MAX_THREADS = 4;
+
+    private static final int RUNS = 3;
+
+    private static final String[] DAYS_OF_WEEK = {
+            "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
+
+    private Context mContext;
+    private HabitDbHelper mDbHelper;
+    private int mRows;
+
+    @Before
+    public void insertHabits() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new HabitDbHelper(mContext, DATABASE_NAME);
+        mRows = Integer.parseInt(
+                InstrumentationRegistry.getArguments().getString(ARG_ROWS, DEFAULT_ROWS));
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + HabitEntry.TABLE_NAME
+                + " (" + HabitEntry.COLUMN_HABIT_NAME + ", " + HabitEntry.COLUMN_HABIT_DAYOFWEEK
+                + ", " + HabitEntry.COLUMN_HABIT_TIMEOFDAY + ", "
+                + HabitEntry.COLUMN_HABIT_FREQUENCY + ") VALUES (?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < mRows; i++) {
+                insert.bindString(1, LOG_TAG + " " + i);
+                insert.bindString(2, DAYS_OF_WEEK[i % DAYS_OF_WEEK.length]);
+                insert.bindLong(3, i % 3);
+                insert.bindLong(4, i % 10);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    @After
+    public void deleteDatabase() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void scanScalesWithReadConnections() throws Exception {
+        HabitAnalytics analytics = new HabitAnalytics(mDbHelper);
+        int maxThreads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS);
+        HabitStats expected = null;
+        long singleThreadNanos = 0;
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                long bestNanos = Long.MAX_VALUE;
+                HabitStats stats = null;
+                for (int run = 0; run < RUNS; run++) {
+                    long startNanos = System.nanoTime();
+                    stats = analytics.computeStats(executor, threads);
+                    bestNanos = Math.min(bestNanos, System.nanoTime() - startNanos);
+                }
+
+                if (expected == null) {
+                    expected = stats;
+                    singleThreadNanos = bestNanos;
+                } else {
+                    assertEquals(expected.getHabitCount(), stats.getHabitCount());
+                    for (int day = 0; day <= HabitEntry.DAYOFWEEK_UNKNOWN; day++) {
+                        assertEquals(expected.getFrequencyByDayOfWeek(day),
+                                stats.getFrequencyByDayOfWeek(day));
+                    }
+                }
+                Log.i(LOG_TAG, String.format("rows=%d threads=%d bestMs=%.1f speedup=%.2f",
+                        mRows, threads, bestNanos / 1e6, singleThreadNanos / (double) bestNanos));
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        assertEquals(mRows, expected.getHabitCount());
+    }
+}
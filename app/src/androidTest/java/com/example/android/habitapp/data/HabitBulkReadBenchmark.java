@@ -0,0 +1,166 @@
+package com.example.android.habitapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.habitapp.data.HabitContract.HabitEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares reading a few columns of every habit through query() with reading them through
+ * {@link HabitContract#METHOD_BULK_READ}, and logs the time, the allocations on the reading
+ * thread and the number of provider round-trips of each.
+ *
+ * The instrumentation runs in the app's process, so neither read crosses a process here. The
+ * figures show the reader's own cost; a cross-process reader also pays for every CursorWindow
+ * that query() has to ship.
+ *
+ * The habits are written to a provider on a database of its own, so the app's data is not
+ * touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HabitBulkReadBenchmark {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = HabitBulkReadBenchmark.class.getSimpleName();
+
+    private static final int HABIT_COUNT = 5000;
+
+    private static final String[] PROJECTION = {
+            HabitEntry._ID,
+            HabitEntry.COLUMN_HABIT_TIMEOFDAY,
+            HabitEntry.COLUMN_HABIT_FREQUENCY};
+
+    /** Name of the database file the benchmark creates and deletes */
+    private static final String DATABASE_NAME = "habits-bulk-read-benchmark";
+
+    private IsolatedHabitProvider mProvider;
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void insertHabits() {
+        mProvider = new IsolatedHabitProvider(
+                InstrumentationRegistry.getTargetContext(), DATABASE_NAME);
+        mContentResolver = mProvider.getContentResolver();
+        for (int i = 0; i < HABIT_COUNT; i++) {
+            ContentValues values = new ContentValues();
+            values.put(HabitEntry.COLUMN_HABIT_NAME, LOG_TAG + " " + i);
+            values.put(HabitEntry.COLUMN_HABIT_DAYOFWEEK, "Monday");
+            values.put(HabitEntry.COLUMN_HABIT_TIMEOFDAY, i % 3);
+            values.put(HabitEntry.COLUMN_HABIT_FREQUENCY, i % 10);
+            mContentResolver.insert(HabitEntry.CONTENT_URI, values);
+        }
+    }
+
+    @After
+    public void deleteDatabase() {
+        mProvider.delete();
+    }
+
+    @Test
+    public void bulkReadAllocatesLessThanQuery() {
+        // Warm up both paths so class loading and statement compilation are not measured
+        long queryFrequencySum = readWithQuery();
+        long bulkFrequencySum = readWithBulkRead();
+        assertEquals(queryFrequencySum, bulkFrequencySum);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long startNanos = System.nanoTime();
+        readWithQuery();
+        long queryNanos = System.nanoTime() - startNanos;
+        Debug.stopAllocCounting();
+        int queryAllocations = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        startNanos = System.nanoTime();
+        int pages = countBulkReadPages();
+        long bulkNanos = System.nanoTime() - startNanos;
+        Debug.stopAllocCounting();
+        int bulkAllocations = Debug.getThreadAllocCount();
+
+        Log.i(LOG_TAG, "rows=" + HABIT_COUNT
+                + " query.ms=" + queryNanos / 1000000 + " query.allocs=" + queryAllocations
+                + " bulk.ms=" + bulkNanos / 1000000 + " bulk.allocs=" + bulkAllocations
+                + " bulk.roundTrips=" + pages);
+        assertTrue("bulk read allocated " + bulkAllocations + " objects, query "
+                + queryAllocations, bulkAllocations < queryAllocations);
+    }
+
+    /**
+     * Reads the projection through query() and returns the sum of the frequencies.
+     */
+    private long readWithQuery() {
+        Cursor cursor = mContentResolver.query(HabitEntry.CONTENT_URI, PROJECTION,
+                null, null, HabitEntry._ID);
+        long frequencySum = 0;
+        try {
+            int idColumnIndex = cursor.getColumnIndex(HabitEntry._ID);
+            int timeOfDayColumnIndex = cursor.getColumnIndex(HabitEntry.COLUMN_HABIT_TIMEOFDAY);
+            int frequencyColumnIndex = cursor.getColumnIndex(HabitEntry.COLUMN_HABIT_FREQUENCY);
+            while (cursor.moveToNext()) {
+                cursor.getLong(idColumnIndex);
+                cursor.getInt(timeOfDayColumnIndex);
+                frequencySum += cursor.getInt(frequencyColumnIndex);
+            }
+        } finally {
+            cursor.close();
+        }
+        return frequencySum;
+    }
+
+    /**
+     * Reads the projection through the bulk read, page by page, and returns the sum of the
+     * frequencies.
+     */
+    private long readWithBulkRead() {
+        long frequencySum = 0;
+        Bundle extras = new Bundle();
+        extras.putStringArray(HabitContract.EXTRA_PROJECTION, PROJECTION);
+        while (true) {
+            Bundle page = mContentResolver.call(HabitEntry.CONTENT_URI,
+                    HabitContract.METHOD_BULK_READ, null, extras);
+            for (int frequency : page.getIntArray(HabitEntry.COLUMN_HABIT_FREQUENCY)) {
+                frequencySum += frequency;
+            }
+            if (!page.containsKey(HabitContract.EXTRA_NEXT_AFTER_ID)) {
+                return frequencySum;
+            }
+            extras.putLong(HabitContract.EXTRA_AFTER_ID,
+                    page.getLong(HabitContract.EXTRA_NEXT_AFTER_ID));
+        }
+    }
+
+    /**
+     * Reads the projection through the bulk read and returns the number of calls it took.
+     */
+    private int countBulkReadPages() {
+        int pages = 0;
+        Bundle extras = new Bundle();
+        extras.putStringArray(HabitContract.EXTRA_PROJECTION, PROJECTION);
+        while (true) {
+            Bundle page = mContentResolver.call(HabitEntry.CONTENT_URI,
+                    HabitContract.METHOD_BULK_READ, null, extras);
+            pages++;
+            if (!page.containsKey(HabitContract.EXTRA_NEXT_AFTER_ID)) {
+                return pages;
+            }
+            extras.putLong(HabitContract.EXTRA_AFTER_ID,
+                    page.getLong(HabitContract.EXTRA_NEXT_AFTER_ID));
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package com.example.android.habitapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.habitapp.data.HabitContract.HabitEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress tool that runs a configurable mix of inserts, increments, read-modify-writes, queries
+ * and deletes against {@link HabitProvider} from several threads at once.
+ *
+ * Every thread increments one shared habit through the increment URI, and read-modify-writes
+ * another by reading its frequency and writing back one more. The final frequencies show
+ * whether updates were lost: the increments never should be, the read-modify-writes are
+ * expected to be under contention. Lock waits and busy errors are read from the provider's
+ * {@link HabitContract#METHOD_LOCK_METRICS}, so waits for the connection pool count as well as
+ * SQLite's own locks. The result is a single {@link Report} line that can be logged and
+ * compared between runs.
+ */
+public class HabitProviderStress {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = HabitProviderStress.class.getSimpleName();
+
+    /** Operation types, also the index into the weights and the per-operation arrays */
+    public static final int OP_INSERT = 0;
+    public static final int OP_INCREMENT = 1;
+    public static final int OP_READ_MODIFY_WRITE = 2;
+    public static final int OP_QUERY = 3;
+    public static final int OP_DELETE = 4;
+    private static final String[] OP_NAMES =
+            {"insert", "increment", "readModifyWrite", "query", "delete"};
+
+    /** Number of operation types, the length of the weights */
+    public static final int OP_COUNT = OP_NAMES.length;
+
+    /** Number of times an operation is retried after the database was locked */
+    private static final int MAX_LOCK_RETRIES = 10;
+
+    private final ContentResolver mContentResolver;
+    private final int mThreadCount;
+    private final int mOperationsPerThread;
+    private final int[] mWeights;
+
+    /** IDs of every habit the run inserted and did not delete yet */
+    private final List<Long> mInsertedIds = Collections.synchronizedList(new ArrayList<Long>());
+
+    private final AtomicLong mLockRetries = new AtomicLong();
+    private final AtomicLong mFailures = new AtomicLong();
+    private final AtomicLong mSkipped = new AtomicLong();
+    private final AtomicLong mSuccessfulIncrements = new AtomicLong();
+    private final AtomicLong mSuccessfulReadModifyWrites = new AtomicLong();
+
+    /**
+     * Constructs a new instance of {@link HabitProviderStress}.
+     *
+     * @param contentResolver     to reach the provider through
+     * @param threadCount         number of threads running operations at once
+     * @param operationsPerThread number of operations each thread runs
+     * @param weights             relative share of each operation type in the mix, indexed by
+     *                            the OP_* constants
+     */
+    public HabitProviderStress(ContentResolver contentResolver, int threadCount,
+                               int operationsPerThread, int[] weights) {
+        if (threadCount <= 0 || operationsPerThread <= 0) {
+            throw new IllegalArgumentException("Stress run requires threads and operations");
+        }
+        if (weights.length != OP_COUNT) {
+            throw new IllegalArgumentException("Stress run requires " + OP_COUNT + " weights");
+        }
+        int totalWeight = 0;
+        for (int weight : weights) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Stress run requires valid operation weights");
+            }
+            totalWeight += weight;
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("Stress run requires valid operation weights");
+        }
+        mContentResolver = contentResolver;
+        mThreadCount = threadCount;
+        mOperationsPerThread = operationsPerThread;
+        mWeights = weights.clone();
+    }
+
+    /**
+     * Runs the stress test and returns its report. This blocks until all threads are done, so
+     * it must not be called from the UI thread. Habits inserted by the run are deleted
+     * afterwards by ID.
+     */
+    public Report run() throws InterruptedException {
+        try {
+            final long counterId = insertStressHabit();
+            mInsertedIds.add(counterId);
+            final long readModifyWriteId = insertStressHabit();
+            mInsertedIds.add(readModifyWriteId);
+
+            long[] lockMetricsBefore = readLockMetrics();
+
+            final long[][][] latencies = new long[mThreadCount][][];
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(mThreadCount);
+            for (int t = 0; t < mThreadCount; t++) {
+                final int threadIndex = t;
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            latencies[threadIndex] =
+                                    runThread(threadIndex, counterId, readModifyWriteId);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }, LOG_TAG + "-" + t).start();
+            }
+
+            long startNanos = System.nanoTime();
+            start.countDown();
+            done.await();
+            long durationNanos = System.nanoTime() - startNanos;
+
+            long[] lockMetricsAfter = readLockMetrics();
+            long lostIncrements = mSuccessfulIncrements.get() - readFrequency(counterId);
+            long lostReadModifyWrites =
+                    mSuccessfulReadModifyWrites.get() - readFrequency(readModifyWriteId);
+
+            Report report = new Report(mThreadCount, durationNanos, mergeLatencies(latencies),
+                    mSkipped.get(), mLockRetries.get(),
+                    lockMetricsAfter[0] - lockMetricsBefore[0],
+                    lockMetricsAfter[1] - lockMetricsBefore[1],
+                    lockMetricsAfter[2] - lockMetricsBefore[2],
+                    mFailures.get(), lostIncrements, lostReadModifyWrites);
+            Log.i(LOG_TAG, report.toString());
+            return report;
+        } finally {
+            deleteInsertedHabits();
+        }
+    }
+
+    /**
+     * Runs the operations of one thread and returns the latency of every completed operation
+     * in nanoseconds, grouped by operation type.
+     */
+    private long[][] runThread(int threadIndex, long counterId, long readModifyWriteId) {
+        // Seed by thread so a run with the same configuration issues the same mix
+        Random random = new Random(threadIndex);
+        int totalWeight = 0;
+        for (int weight : mWeights) {
+            totalWeight += weight;
+        }
+
+        long[][] latencies = new long[OP_COUNT][mOperationsPerThread];
+        int[] counts = new int[OP_COUNT];
+        List<Long> insertedIds = new ArrayList<>();
+
+        for (int i = 0; i < mOperationsPerThread; i++) {
+            int op = pickOperation(random.nextInt(totalWeight));
+            long startNanos = System.nanoTime();
+            try {
+                if (runWithRetry(op, counterId, readModifyWriteId, insertedIds)) {
+                    latencies[op][counts[op]++] = System.nanoTime() - startNanos;
+                } else {
+                    mSkipped.incrementAndGet();
+                }
+            } catch (RuntimeException e) {
+                mFailures.incrementAndGet();
+                Log.e(LOG_TAG, "Failed " + OP_NAMES[op], e);
+            }
+        }
+
+        for (int op = 0; op < OP_COUNT; op++) {
+            latencies[op] = Arrays.copyOf(latencies[op], counts[op]);
+        }
+        return latencies;
+    }
+
+    private int pickOperation(int roll) {
+        for (int op = 0; op < mWeights.length; op++) {
+            if (roll < mWeights[op]) {
+                return op;
+            }
+            roll -= mWeights[op];
+        }
+        throw new IllegalStateException("Roll outside of the weights");
+    }
+
+    /**
+     * Runs a single operation, retrying with a short back-off while the database is locked.
+     * Returns false if the operation had nothing to do.
+     */
+    private boolean runWithRetry(int op, long counterId, long readModifyWriteId,
+                                 List<Long> insertedIds) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return runOperation(op, counterId, readModifyWriteId, insertedIds);
+            } catch (SQLiteDatabaseLockedException e) {
+                mLockRetries.incrementAndGet();
+                if (attempt == MAX_LOCK_RETRIES) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(1 << Math.min(attempt, 5));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private boolean runOperation(int op, long counterId, long readModifyWriteId,
+                                 List<Long> insertedIds) {
+        switch (op) {
+            case OP_INSERT:
+                long insertedId = insertStressHabit();
+                insertedIds.add(insertedId);
+                mInsertedIds.add(insertedId);
+                return true;
+            case OP_INCREMENT:
+                ContentValues delta = new ContentValues();
+                delta.put(HabitEntry.COLUMN_HABIT_FREQUENCY, 1);
+                if (mContentResolver.update(HabitEntry.buildIncrementUri(counterId), delta,
+                        null, null) != 1) {
+                    throw new IllegalStateException("Increment updated no row");
+                }
+                mSuccessfulIncrements.incrementAndGet();
+                return true;
+            case OP_READ_MODIFY_WRITE:
+                // Add one in Java and write the result back, the pattern the increment URI
+                // replaces. Concurrent runs overwrite each other's result.
+                ContentValues frequency = new ContentValues();
+                frequency.put(HabitEntry.COLUMN_HABIT_FREQUENCY,
+                        readFrequency(readModifyWriteId) + 1);
+                if (mContentResolver.update(
+                        ContentUris.withAppendedId(HabitEntry.CONTENT_URI, readModifyWriteId),
+                        frequency, null, null) != 1) {
+                    throw new IllegalStateException("Read-modify-write updated no row");
+                }
+                mSuccessfulReadModifyWrites.incrementAndGet();
+                return true;
+            case OP_QUERY:
+                Cursor cursor = mContentResolver.query(HabitEntry.CONTENT_URI,
+                        HabitEntry.ALL_COLUMNS, null, null, null);
+                if (cursor == null) {
+                    throw new IllegalStateException("Query returned no cursor");
+                }
+                try {
+                    // Walk the rows so the whole result is actually read
+                    while (cursor.moveToNext()) {
+                        cursor.getLong(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                return true;
+            case OP_DELETE:
+                // Only delete habits this thread inserted, never the shared habits. A thread
+                // that has none left skips the delete instead of timing a no-op.
+                if (insertedIds.isEmpty()) {
+                    return false;
+                }
+                long deletedId = insertedIds.get(insertedIds.size() - 1);
+                if (mContentResolver.delete(ContentUris.withAppendedId(
+                        HabitEntry.CONTENT_URI, deletedId), null, null) != 1) {
+                    throw new IllegalStateException("Delete removed no row");
+                }
+                insertedIds.remove(insertedIds.size() - 1);
+                mInsertedIds.remove(Long.valueOf(deletedId));
+                return true;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + op);
+        }
+    }
+
+    /**
+     * Inserts a habit for the run and returns its ID.
+     */
+    private long insertStressHabit() {
+        ContentValues values = new ContentValues();
+        values.put(HabitEntry.COLUMN_HABIT_NAME, LOG_TAG);
+        values.put(HabitEntry.COLUMN_HABIT_TIMEOFDAY, HabitEntry.TIMEOFDAY_MORNING);
+        values.put(HabitEntry.COLUMN_HABIT_FREQUENCY, 0);
+        Uri uri = mContentResolver.insert(HabitEntry.CONTENT_URI, values);
+        if (uri == null) {
+            throw new IllegalStateException("Insert returned no URI");
+        }
+        return ContentUris.parseId(uri);
+    }
+
+    /**
+     * Deletes the habits the run inserted and did not delete, and only those.
+     */
+    private void deleteInsertedHabits() {
+        synchronized (mInsertedIds) {
+            for (long id : mInsertedIds) {
+                mContentResolver.delete(
+                        ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id), null, null);
+            }
+            mInsertedIds.clear();
+        }
+    }
+
+    private long readFrequency(long id) {
+        Cursor cursor = mContentResolver.query(
+                ContentUris.withAppendedId(HabitEntry.CONTENT_URI, id),
+                new String[] {HabitEntry.COLUMN_HABIT_FREQUENCY}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the provider's lock waits, lock wait milliseconds and busy errors so far.
+     */
+    private long[] readLockMetrics() {
+        Bundle metrics = mContentResolver.call(HabitEntry.CONTENT_URI,
+                HabitContract.METHOD_LOCK_METRICS, null, null);
+        return new long[] {
+                metrics.getLong(HabitContract.EXTRA_LOCK_WAITS),
+                metrics.getLong(HabitContract.EXTRA_LOCK_WAIT_MILLIS),
+                metrics.getLong(HabitContract.EXTRA_BUSY_ERRORS)};
+    }
+
+    /**
+     * Combines the per-thread latencies into one sorted array per operation type.
+     */
+    private static long[][] mergeLatencies(long[][][] perThread) {
+        long[][] merged = new long[OP_COUNT][];
+        for (int op = 0; op < OP_COUNT; op++) {
+            int total = 0;
+            for (long[][] thread : perThread) {
+                if (thread != null) {
+                    total += thread[op].length;
+                }
+            }
+            merged[op] = new long[total];
+            int offset = 0;
+            for (long[][] thread : perThread) {
+                if (thread != null) {
+                    System.arraycopy(thread[op], 0, merged[op], offset, thread[op].length);
+                    offset += thread[op].length;
+                }
+            }
+            Arrays.sort(merged[op]);
+        }
+        return merged;
+    }
+
+    /**
+     * Result of a stress run.
+     *
+     * {@link #toString()} prints every figure as key=value pairs on one line, always in the
+     * same order and units, so reports from different runs can be diffed or parsed.
+     */
+    public static final class Report {
+
+        private final int mThreadCount;
+        private final long mDurationNanos;
+        private final long[][] mSortedLatencies;
+        private final long mSkipped;
+        private final long mLockRetries;
+        private final long mLockWaits;
+        private final long mLockWaitMillis;
+        private final long mBusyErrors;
+        private final long mFailures;
+        private final long mLostIncrements;
+        private final long mLostReadModifyWrites;
+
+        Report(int threadCount, long durationNanos, long[][] sortedLatencies, long skipped,
+               long lockRetries, long lockWaits, long lockWaitMillis, long busyErrors,
+               long failures, long lostIncrements, long lostReadModifyWrites) {
+            mThreadCount = threadCount;
+            mDurationNanos = durationNanos;
+            mSortedLatencies = sortedLatencies;
+            mSkipped = skipped;
+            mLockRetries = lockRetries;
+            mLockWaits = lockWaits;
+            mLockWaitMillis = lockWaitMillis;
+            mBusyErrors = busyErrors;
+            mFailures = failures;
+            mLostIncrements = lostIncrements;
+            mLostReadModifyWrites = lostReadModifyWrites;
+        }
+
+        /** Returns the number of operations that completed */
+        public long getCompletedCount() {
+            long completed = 0;
+            for (long[] sorted : mSortedLatencies) {
+                completed += sorted.length;
+            }
+            return completed;
+        }
+
+        /** Returns the completed operations per second */
+        public double getThroughput() {
+            return getCompletedCount() * 1e9 / mDurationNanos;
+        }
+
+        /** Returns the number of write transactions that waited for the database to start */
+        public long getLockWaits() {
+            return mLockWaits;
+        }
+
+        /** Returns the number of write transactions that failed on a locked database */
+        public long getBusyErrors() {
+            return mBusyErrors;
+        }
+
+        /** Returns the number of operations that failed */
+        public long getFailures() {
+            return mFailures;
+        }
+
+        /** Returns the number of successful increments missing from the counter habit */
+        public long getLostIncrements() {
+            return mLostIncrements;
+        }
+
+        /** Returns the number of successful read-modify-writes that were overwritten */
+        public long getLostReadModifyWrites() {
+            return mLostReadModifyWrites;
+        }
+
+        private static long percentileMicros(long[] sorted, int percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(index, 0)] / 1000;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append("threads=").append(mThreadCount)
+                    .append(" ops=").append(getCompletedCount())
+                    .append(" skipped=").append(mSkipped)
+                    .append(" durationMs=").append(mDurationNanos / 1000000)
+                    .append(" opsPerSec=").append(Math.round(getThroughput()));
+            for (int op = 0; op < OP_COUNT; op++) {
+                long[] sorted = mSortedLatencies[op];
+                report.append(' ').append(OP_NAMES[op]).append(".count=").append(sorted.length)
+                        .append(' ').append(OP_NAMES[op]).append(".p50Us=")
+                        .append(percentileMicros(sorted, 50))
+                        .append(' ').append(OP_NAMES[op]).append(".p95Us=")
+                        .append(percentileMicros(sorted, 95))
+                        .append(' ').append(OP_NAMES[op]).append(".p99Us=")
+                        .append(percentileMicros(sorted, 99));
+            }
+            report.append(" lockRetries=").append(mLockRetries)
+                    .append(" lockWaits=").append(mLockWaits)
+                    .append(" lockWaitMs=").append(mLockWaitMillis)
+                    .append(" busyErrors=").append(mBusyErrors)
+                    .append(" failures=").append(mFailures)
+                    .append(" lostIncrements=").append(mLostIncrements)
+                    .append(" lostReadModifyWrites=").append(mLostReadModifyWrites);
+            return report.toString();
+        }
+    }
+}
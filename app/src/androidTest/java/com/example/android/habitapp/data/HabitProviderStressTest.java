@@ -0,0 +1,80 @@
+package com.example.android.habitapp.data;
+
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs {@link HabitProviderStress} against a {@link HabitProvider} on a device. The provider
+ * runs on a database of its own, so the app's habits are not touched.
+ *
+ * The run is configured with instrumentation arguments, for instance:
+ *
+ * <pre>
+ * ./gradlew connectedAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=com.example.android.habitapp.data.HabitProviderStressTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.stressThreads=16 \
+ *     -Pandroid.testInstrumentationRunnerArguments.stressOperations=1000 \
+ *     -Pandroid.testInstrumentationRunnerArguments.stressWeights=2,4,2,6,1
+ * </pre>
+ *
+ * The weights are for insert, increment, read-modify-write, query and delete, in that order.
+ * The report is logged under the {@link HabitProviderStress#LOG_TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HabitProviderStressTest {
+
+    /** Instrumentation argument names */
+    private static final String ARG_THREADS = "stressThreads";
+    private static final String ARG_OPERATIONS = "stressOperations";
+    private static final String ARG_WEIGHTS = "stressWeights";
+
+    /** Defaults for a run without arguments, short enough for every test run */
+    private static final String DEFAULT_THREADS = "8";
+    private static final String DEFAULT_OPERATIONS = "250";
+    private static final String DEFAULT_WEIGHTS = "2,4,2,6,1";
+
+    /** Name of the database file the test creates and deletes */
+    private static final String DATABASE_NAME = "habits-stress-test";
+
+    private IsolatedHabitProvider mProvider;
+
+    @Before
+    public void createProvider() {
+        mProvider = new IsolatedHabitProvider(
+                InstrumentationRegistry.getTargetContext(), DATABASE_NAME);
+    }
+
+    @After
+    public void deleteProvider() {
+        mProvider.delete();
+    }
+
+    @Test
+    public void concurrentIncrementsAreNeverLost() throws InterruptedException {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        int threads = Integer.parseInt(arguments.getString(ARG_THREADS, DEFAULT_THREADS));
+        int operations = Integer.parseInt(arguments.getString(ARG_OPERATIONS, DEFAULT_OPERATIONS));
+
+        String[] weightValues = arguments.getString(ARG_WEIGHTS, DEFAULT_WEIGHTS).split(",");
+        int[] weights = new int[weightValues.length];
+        for (int i = 0; i < weightValues.length; i++) {
+            weights[i] = Integer.parseInt(weightValues[i].trim());
+        }
+
+        HabitProviderStress.Report report = new HabitProviderStress(
+                mProvider.getContentResolver(), threads, operations, weights).run();
+
+        // Lost read-modify-writes are the expected outcome of that pattern, so they are only
+        // reported. The increment URI must not lose any update.
+        assertEquals(report.toString(), 0, report.getFailures());
+        assertEquals(report.toString(), 0, report.getLostIncrements());
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.android.habitapp.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.test.mock.MockContentResolver;
+
+/**
+ * A {@link HabitProvider} on a database file of its own, reached through a resolver that only
+ * knows this provider, so tests can write freely without touching the app's habits.
+ */
+final class IsolatedHabitProvider {
+
+    private final Context mContext;
+    private final String mDatabaseName;
+    private final HabitDbHelper mDbHelper;
+    private final HabitProvider mProvider;
+    private final MockContentResolver mContentResolver;
+
+    /**
+     * Creates the provider on a new, empty database.
+     *
+     * @param context      of the app under test
+     * @param databaseName of the database file, deleted first if it exists
+     */
+    IsolatedHabitProvider(Context context, String databaseName) {
+        mContext = context;
+        mDatabaseName = databaseName;
+        mContext.deleteDatabase(mDatabaseName);
+
+        mDbHelper = new HabitDbHelper(mContext, mDatabaseName);
+        mProvider = new HabitProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+        mContentResolver = new MockContentResolver(mContext);
+        mContentResolver.addProvider(HabitContract.CONTENT_AUTHORITY, mProvider);
+    }
+
+    /**
+     * Returns a resolver that sends the habits URIs to this provider.
+     */
+    ContentResolver getContentResolver() {
+        return mContentResolver;
+    }
+
+    /**
+     * Shuts the provider down and deletes its database.
+     */
+    void delete() {
+        mProvider.shutdown();
+        mDbHelper.close();
+        mContext.deleteDatabase(mDatabaseName);
+    }
+}
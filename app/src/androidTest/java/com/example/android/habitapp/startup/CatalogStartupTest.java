@@ -0,0 +1,50 @@
+package com.example.android.habitapp.startup;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.habitapp.CatalogActivity;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Launches {@link CatalogActivity} on a device and fails if the phases {@link StartupTimer}
+ * measured exceed the {@link StartupBudget}.
+ *
+ * The app's process and its provider are already running when the test starts, so this
+ * covers the activity's part of the launch: its creation, the inflation, the first open of
+ * the database if nothing opened it before, and the queries of onStart().
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogStartupTest {
+
+    @Test
+    public void catalogLaunchIsWithinBudget() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Intent intent = new Intent(Intent.ACTION_MAIN)
+                .setClass(instrumentation.getTargetContext(), CatalogActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        StartupTimer.restart();
+        Activity activity = instrumentation.startActivitySync(intent);
+        try {
+            Map<String, Long> reportMillis = StartupTimer.getReportMillis();
+            assertNotNull("The launch was not marked finished", reportMillis);
+
+            StartupBudget budget = new StartupBudget();
+            assertTrue(budget.buildReport(reportMillis),
+                    budget.findOverBudget(reportMillis).isEmpty());
+        } finally {
+            activity.finish();
+        }
+    }
+}
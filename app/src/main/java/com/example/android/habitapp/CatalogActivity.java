@@ -9,6 +9,7 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
@@ -17,8 +18,14 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.TextView;
 
+import com.example.android.habitapp.data.HabitAnalytics;
+import com.example.android.habitapp.data.HabitAnalytics.HabitStats;
 import com.example.android.habitapp.data.HabitContract.HabitEntry;
 import com.example.android.habitapp.data.HabitDbHelper;
+import com.example.android.habitapp.startup.StartupBudget;
+import com.example.android.habitapp.startup.StartupTimer;
+
+import java.lang.ref.WeakReference;
 
 /**
  * Displays list of habits that were entered and stored in the app.
@@ -28,28 +35,47 @@ public class CatalogActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_catalog);
+        StartupTimer.beginPhase(StartupBudget.PHASE_ACTIVITY_CREATE);
+        try {
+            super.onCreate(savedInstanceState);
+            StartupTimer.beginPhase(StartupBudget.PHASE_INFLATE);
+            try {
+                setContentView(R.layout.activity_catalog);
+            } finally {
+                StartupTimer.endPhase(StartupBudget.PHASE_INFLATE);
+            }
 
 
-        // Setup FAB to open EditorActivity
-        FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
-        fab.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View view) {
-                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
-                startActivity(intent);
-            }
-        });
+            // Setup FAB to open EditorActivity
+            FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
+            fab.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+                    startActivity(intent);
+                }
+            });
 
-        DbHelper = new HabitDbHelper(this);
+            DbHelper = HabitDbHelper.getInstance(this);
+        } finally {
+            StartupTimer.endPhase(StartupBudget.PHASE_ACTIVITY_CREATE);
+        }
     }
 
     @Override
     protected void onStart() {
         super.onStart();
-        displayDatabaseInfo();
-        readData();
+        StartupTimer.beginPhase(StartupBudget.PHASE_START_QUERIES);
+        try {
+            displayDatabaseInfo();
+            readData();
+            loadStats();
+        } finally {
+            StartupTimer.endPhase(StartupBudget.PHASE_START_QUERIES);
+        }
+
+        // The catalog is now showing, so the launch is done
+        StartupTimer.finish();
     }
 
     /**
@@ -125,6 +151,47 @@ public class CatalogActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Computes the habit statistics in the background and shows them above the list.
+     */
+    private void loadStats() {
+        TextView statsView = (TextView) findViewById(R.id.text_view_stats);
+        new StatsTask(HabitAnalytics.getInstance(this), statsView).execute();
+    }
+
+    /**
+     * Runs {@link HabitAnalytics#getStats()} off the UI thread. Only holds a weak reference to
+     * the view, so a finished activity is not kept alive by a long computation.
+     */
+    private static class StatsTask extends AsyncTask<Void, Void, HabitStats> {
+
+        private final HabitAnalytics mAnalytics;
+        private final WeakReference<TextView> mStatsView;
+
+        StatsTask(HabitAnalytics analytics, TextView statsView) {
+            mAnalytics = analytics;
+            mStatsView = new WeakReference<>(statsView);
+        }
+
+        @Override
+        protected HabitStats doInBackground(Void... params) {
+            return mAnalytics.getStats();
+        }
+
+        @Override
+        protected void onPostExecute(HabitStats stats) {
+            TextView statsView = mStatsView.get();
+            if (statsView == null) {
+                return;
+            }
+            statsView.setText(statsView.getContext().getString(R.string.catalog_stats_summary,
+                    stats.getHabitCount(),
+                    stats.getCountByTimeOfDay(HabitEntry.TIMEOFDAY_MORNING),
+                    stats.getCountByTimeOfDay(HabitEntry.TIMEOFDAY_AFTERNOON),
+                    stats.getCountByTimeOfDay(HabitEntry.TIMEOFDAY_EVENING)));
+        }
+    }
+
     //Method for Read database
 
     private HabitDbHelper DbHelper;
@@ -108,7 +108,7 @@ public class EditorActivity extends AppCompatActivity {
         int frequency = Integer.parseInt(frequencyString);
 
         // Create database helper
-        HabitDbHelper mDbHelper = new HabitDbHelper(this);
+        HabitDbHelper mDbHelper = HabitDbHelper.getInstance(this);
 
         // Gets the database in write mode
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
@@ -0,0 +1,41 @@
+package com.example.android.habitapp;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.StrictMode;
+
+import com.example.android.habitapp.startup.StartupTimer;
+
+/**
+ * {@link Application} for the Habit app. Sets up startup timing and, in debug builds, StrictMode.
+ */
+public class HabitApplication extends Application {
+
+    @Override
+    protected void attachBaseContext(Context base) {
+        // This runs before any content provider is created, so it is the earliest point where
+        // the startup timing and StrictMode cover HabitProvider.onCreate as well.
+        StartupTimer.markProcessStart();
+        if (BuildConfig.DEBUG) {
+            enableStrictMode();
+        }
+        super.attachBaseContext(base);
+    }
+
+    /**
+     * Log disk access on the main thread and database cursors or other closeable objects
+     * that are never closed.
+     */
+    private static void enableStrictMode() {
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .penaltyLog()
+                .build());
+        StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                .detectLeakedSqlLiteObjects()
+                .detectLeakedClosableObjects()
+                .penaltyLog()
+                .build());
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.android.habitapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.habitapp.data.HabitContract.HabitEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes long-term statistics over the habits table off the UI thread.
+ *
+ * The table is split into _id ranges that are scanned in parallel, each into its own
+ * {@link HabitStats} accumulator, and the partial results are then merged. The merged result
+ * is cached until {@link HabitProvider#getDataVersion()} changes.
+ *
+ * The scans only run side by side because {@link HabitDbHelper} turns on write-ahead logging,
+ * which gives the database a pool of read connections instead of a single connection.
+ */
+public class HabitAnalytics {
+
+    /**
+     * Number of worker threads, one per available core but no more than the read connections
+     * SQLite keeps open in write-ahead logging mode. Android's pool holds 4 of them on most
+     * devices, and more threads would only queue for a connection.
+     */
+    private static final int THREAD_COUNT =
+            Math.min(Runtime.getRuntime().availableProcessors(), 4);
+
+    /**
+     * Number of _id ranges scanned per worker thread. Using more ranges than threads keeps all
+     * threads busy when ids are unevenly spread across the table.
+     */
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    /** Shared pool for the partition scans */
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+
+    /** Instance shared by the whole app, so its cache survives activity restarts */
+    private static HabitAnalytics sInstance;
+
+    /** Database helper object */
+    private final HabitDbHelper mDbHelper;
+
+    /** Last computed statistics, or null if nothing has been computed yet */
+    private HabitStats mCachedStats;
+
+    /** Data version {@link #mCachedStats} was computed against */
+    private long mCachedVersion;
+
+    /**
+     * Constructs a new instance of {@link HabitAnalytics}.
+     *
+     * @param dbHelper to read the habits from
+     */
+    public HabitAnalytics(HabitDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Returns the {@link HabitAnalytics} shared by the whole app.
+     */
+    public static synchronized HabitAnalytics getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new HabitAnalytics(HabitDbHelper.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the statistics for all habits. This blocks while the table is scanned, so it must
+     * not be called from the UI thread.
+     */
+    public HabitStats getStats() {
+        // Read the version before scanning. If a write happens during the scan the cached
+        // result is stored against the older version and will be recomputed next time.
+        long version = HabitProvider.getDataVersion();
+        synchronized (this) {
+            if (mCachedStats != null && mCachedVersion == version) {
+                return mCachedStats;
+            }
+        }
+
+        HabitStats stats = computeStats(sExecutor, THREAD_COUNT);
+
+        synchronized (this) {
+            mCachedStats = stats;
+            mCachedVersion = version;
+        }
+        return stats;
+    }
+
+    /**
+     * Scans the habits table in parallel _id ranges on the given executor and merges the
+     * partial results.
+     *
+     * @param threadCount number of threads of the executor
+     */
+    HabitStats computeStats(ExecutorService executor, int threadCount) {
+        final SQLiteDatabase database = mDbHelper.getReadableDatabase();
+
+        long minId;
+        long maxId;
+        Cursor cursor = database.rawQuery("SELECT MIN(" + HabitEntry._ID + "), MAX("
+                + HabitEntry._ID + ") FROM " + HabitEntry.TABLE_NAME, null);
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                // The table is empty
+                return new HabitStats();
+            }
+            minId = cursor.getLong(0);
+            maxId = cursor.getLong(1);
+        } finally {
+            cursor.close();
+        }
+
+        return computeParallel(executor, threadCount * PARTITIONS_PER_THREAD, minId, maxId,
+                new PartitionSource() {
+                    @Override
+                    public HabitStats scan(long start, long end) {
+                        return scanPartition(database, start, end);
+                    }
+                });
+    }
+
+    /**
+     * Splits [minId, maxId] into at most the given number of contiguous _id ranges of roughly
+     * equal width, scans them on the executor and merges the partial results.
+     */
+    static HabitStats computeParallel(ExecutorService executor, int maxPartitions, long minId,
+                                      long maxId, final PartitionSource source) {
+        long span = maxId - minId + 1;
+        int partitions = (int) Math.min(span, maxPartitions);
+        long width = (span + partitions - 1) / partitions;
+
+        List<Future<HabitStats>> futures = new ArrayList<>(partitions);
+        for (long start = minId; start <= maxId; start += width) {
+            final long partitionStart = start;
+            final long partitionEnd = start + width;
+            futures.add(executor.submit(new Callable<HabitStats>() {
+                @Override
+                public HabitStats call() {
+                    return source.scan(partitionStart, partitionEnd);
+                }
+            }));
+        }
+
+        HabitStats result = new HabitStats();
+        try {
+            for (Future<HabitStats> future : futures) {
+                result.merge(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing habit statistics", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to compute habit statistics", e.getCause());
+        }
+        return result;
+    }
+
+    /**
+     * Source of the habits in a half-open _id range [start, end). Lets the parallel scan run
+     * over the database or, for benchmarks, over rows held in memory.
+     */
+    interface PartitionSource {
+        HabitStats scan(long start, long end);
+    }
+
+    /**
+     * Scans a single half-open _id range [start, end) of the habits table into its own
+     * accumulator.
+     */
+    private static HabitStats scanPartition(SQLiteDatabase database, long start, long end) {
+        String[] projection = {
+                HabitEntry.COLUMN_HABIT_DAYOFWEEK,
+                HabitEntry.COLUMN_HABIT_TIMEOFDAY,
+                HabitEntry.COLUMN_HABIT_FREQUENCY};
+        String selection = HabitEntry._ID + ">=? AND " + HabitEntry._ID + "<?";
+        String[] selectionArgs = {String.valueOf(start), String.valueOf(end)};
+
+        HabitStats stats = new HabitStats();
+        Cursor cursor = database.query(HabitEntry.TABLE_NAME, projection, selection,
+                selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                stats.add(HabitEntry.dayOfWeekIndex(cursor.getString(0)),
+                        cursor.getInt(1), cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return stats;
+    }
+
+    /**
+     * Habit counts and summed frequencies per day of week and per time of day.
+     *
+     * All accumulators are primitive arrays indexed by bucket so that adding a row and merging
+     * two partial results never allocates.
+     */
+    public static final class HabitStats {
+
+        /** Number of time of day buckets, see {@link HabitEntry#isValidTimeOfDay(int)} */
+        private static final int TIMEOFDAY_COUNT = 3;
+
+        private long mHabitCount;
+        private final long[] mCountByDayOfWeek = new long[HabitEntry.DAYOFWEEK_UNKNOWN + 1];
+        private final long[] mFrequencyByDayOfWeek = new long[HabitEntry.DAYOFWEEK_UNKNOWN + 1];
+        private final long[] mCountByTimeOfDay = new long[TIMEOFDAY_COUNT];
+        private final long[] mFrequencyByTimeOfDay = new long[TIMEOFDAY_COUNT];
+
+        void add(int dayOfWeekIndex, int timeOfDay, int frequency) {
+            mHabitCount++;
+            mCountByDayOfWeek[dayOfWeekIndex]++;
+            mFrequencyByDayOfWeek[dayOfWeekIndex] += frequency;
+            if (timeOfDay >= 0 && timeOfDay < TIMEOFDAY_COUNT) {
+                mCountByTimeOfDay[timeOfDay]++;
+                mFrequencyByTimeOfDay[timeOfDay] += frequency;
+            }
+        }
+
+        void merge(HabitStats other) {
+            mHabitCount += other.mHabitCount;
+            for (int i = 0; i < mCountByDayOfWeek.length; i++) {
+                mCountByDayOfWeek[i] += other.mCountByDayOfWeek[i];
+                mFrequencyByDayOfWeek[i] += other.mFrequencyByDayOfWeek[i];
+            }
+            for (int i = 0; i < TIMEOFDAY_COUNT; i++) {
+                mCountByTimeOfDay[i] += other.mCountByTimeOfDay[i];
+                mFrequencyByTimeOfDay[i] += other.mFrequencyByTimeOfDay[i];
+            }
+        }
+
+        /** Returns the total number of habits */
+        public long getHabitCount() {
+            return mHabitCount;
+        }
+
+        /** Returns the number of habits for the given {@link HabitEntry#dayOfWeekIndex} */
+        public long getCountByDayOfWeek(int dayOfWeekIndex) {
+            return mCountByDayOfWeek[dayOfWeekIndex];
+        }
+
+        /** Returns the summed frequency for the given {@link HabitEntry#dayOfWeekIndex} */
+        public long getFrequencyByDayOfWeek(int dayOfWeekIndex) {
+            return mFrequencyByDayOfWeek[dayOfWeekIndex];
+        }
+
+        /** Returns the number of habits for the given TIMEOFDAY_* value */
+        public long getCountByTimeOfDay(int timeOfDay) {
+            return mCountByTimeOfDay[timeOfDay];
+        }
+
+        /** Returns the summed frequency for the given TIMEOFDAY_* value */
+        public long getFrequencyByTimeOfDay(int timeOfDay) {
+            return mFrequencyByTimeOfDay[timeOfDay];
+        }
+    }
+}
@@ -27,6 +27,14 @@ public final class HabitContract {
      */
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
 
+    /**
+     * Permissions another app needs to read or write habits through the provider, including
+     * {@link android.content.ContentResolver#call} for reads. Both are signature permissions,
+     * so only apps signed with the same key as this app are granted them.
+     */
+    public static final String PERMISSION_READ = "com.example.android.habitapp.permission.READ_HABITS";
+    public static final String PERMISSION_WRITE = "com.example.android.habitapp.permission.WRITE_HABITS";
+
     /**
      * Possible path (appended to base content URI for possible URI's)
      * For instance, content://com.example.android.habits/habits/ is a valid path for
@@ -35,6 +43,183 @@ public final class HabitContract {
      */
     public static final String PATH_HABITS = "habits";
 
+    /**
+     * Path appended to the content URI of a single habit to add to its frequency, for instance
+     * content://com.example.android.habitapp/habits/3/increment. The amount to add is passed
+     * to update() as {@link HabitEntry#COLUMN_HABIT_FREQUENCY} and is applied in SQL, so
+     * concurrent increments never overwrite each other.
+     */
+    public static final String PATH_INCREMENT = "increment";
+
+    /**
+     * Path appended to the content URI of a single habit to record that it was performed, for
+     * instance content://com.example.android.habitapp/habits/3/activity. Only supports insert,
+     * for a habit that exists, see {@link HabitActivityEntry}.
+     */
+    public static final String PATH_ACTIVITY = "activity";
+
+    /**
+     * Path appended to the content URI of a single habit to read how often it was performed per
+     * period, for instance content://com.example.android.habitapp/habits/3/history?period=week.
+     * The rows come from the detail activity and the rollups together, see
+     * {@link HabitRollupEntry}.
+     */
+    public static final String PATH_HISTORY = "history";
+
+    /**
+     * Detail activity older than this many days is rolled up into the weekly and monthly
+     * summary tables and then deleted.
+     */
+    public static final int RETENTION_DETAIL_MAX_AGE_DAYS = 90;
+
+    /**
+     * Maximum number of detail rows rolled up and deleted in one transaction, so the retention
+     * job never blocks other writers for long.
+     */
+    public static final int RETENTION_BATCH_SIZE = 500;
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that reads a page of habits,
+     * ordered by _id, in a single round-trip. Instead of a Cursor, the result Bundle holds one
+     * packed array per requested column, keyed by the column name and indexed by row: a long[]
+     * for {@link HabitEntry#_ID}, an int[] for the INTEGER columns and a String[] for the TEXT
+     * columns. The number of rows is in {@link #EXTRA_ROW_COUNT}.
+     *
+     * A page holds at most {@link #EXTRA_LIMIT} rows and is cut short before it gets too large
+     * for a binder transaction. If more rows may follow, the result holds
+     * {@link #EXTRA_NEXT_AFTER_ID}; pass it back as {@link #EXTRA_AFTER_ID} to read the next
+     * page. Every page carries the {@link #EXTRA_VERSION} of the data; if it differs from the
+     * version of the first page, the data changed while paging and the read should restart.
+     *
+     * The extras may contain {@link #EXTRA_PROJECTION} to limit the columns that are returned.
+     * When reading the first page they may contain {@link #EXTRA_VERSION} with the version
+     * stamp of a previous full read. If the data has not changed since that version the result
+     * only holds {@link #EXTRA_VERSION} and {@link #EXTRA_UNCHANGED} set to true.
+     *
+     * Callers in another process need {@link #PERMISSION_READ}.
+     */
+    public static final String METHOD_BULK_READ = "bulkRead";
+
+    /**
+     * Columns to return from {@link #METHOD_BULK_READ}. Any of the {@link HabitEntry} columns.
+     * Defaults to all columns.
+     *
+     * Type: String[]
+     */
+    public static final String EXTRA_PROJECTION = "projection";
+
+    /**
+     * Read the {@link #METHOD_BULK_READ} page that starts after this _id. Defaults to reading
+     * from the first habit.
+     *
+     * Type: long
+     */
+    public static final String EXTRA_AFTER_ID = "afterId";
+
+    /**
+     * Maximum number of rows in a {@link #METHOD_BULK_READ} page. Defaults to
+     * {@link #BULK_READ_DEFAULT_LIMIT} and may not exceed {@link #BULK_READ_MAX_LIMIT}.
+     *
+     * Type: int
+     */
+    public static final String EXTRA_LIMIT = "limit";
+
+    /**
+     * _id to pass as {@link #EXTRA_AFTER_ID} for the next {@link #METHOD_BULK_READ} page.
+     * Missing on the last page.
+     *
+     * Type: long
+     */
+    public static final String EXTRA_NEXT_AFTER_ID = "nextAfterId";
+
+    /** Default and maximum values of {@link #EXTRA_LIMIT}. */
+    public static final int BULK_READ_DEFAULT_LIMIT = 1000;
+    public static final int BULK_READ_MAX_LIMIT = 5000;
+
+    /**
+     * Version stamp of the habit data. Sent back by the caller to skip unchanged data.
+     *
+     * Type: long
+     */
+    public static final String EXTRA_VERSION = "version";
+
+    /**
+     * Whether the data is unchanged since the {@link #EXTRA_VERSION} the caller sent.
+     *
+     * Type: boolean
+     */
+    public static final String EXTRA_UNCHANGED = "unchanged";
+
+    /**
+     * Number of rows in a {@link #METHOD_BULK_READ} result.
+     *
+     * Type: int
+     */
+    public static final String EXTRA_ROW_COUNT = "rowCount";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that returns the figures of
+     * SQLite's prepared statement cache for the habits database, summed over the connections
+     * of the pool: {@link #EXTRA_STATEMENT_CACHE_HITS}, {@link #EXTRA_STATEMENT_CACHE_MISSES}
+     * and {@link #EXTRA_STATEMENT_CACHE_SIZE}. They come from
+     * {@link android.database.sqlite.SQLiteDebug#getDatabaseInfo()}, the same figures that
+     * "adb shell dumpsys meminfo" lists per database. Before Jelly Bean they are all 0.
+     *
+     * Structured queries use one SQL template per sort key, so repeating one of them should
+     * count as a hit.
+     */
+    public static final String METHOD_QUERY_METRICS = "queryMetrics";
+
+    /**
+     * Number of statements that were found compiled in the cache.
+     *
+     * Type: long
+     */
+    public static final String EXTRA_STATEMENT_CACHE_HITS = "statementCacheHits";
+
+    /**
+     * Number of statements that had to be compiled.
+     *
+     * Type: long
+     */
+    public static final String EXTRA_STATEMENT_CACHE_MISSES = "statementCacheMisses";
+
+    /**
+     * Number of compiled statements currently held in the cache.
+     *
+     * Type: long
+     */
+    public static final String EXTRA_STATEMENT_CACHE_SIZE = "statementCacheSize";
+
+    /**
+     * Method name for {@link android.content.ContentResolver#call} that returns how often the
+     * provider's write transactions had to wait for the database, in {@link #EXTRA_LOCK_WAITS},
+     * {@link #EXTRA_LOCK_WAIT_MILLIS} and {@link #EXTRA_BUSY_ERRORS}. The counts are totals
+     * since the provider's process started.
+     */
+    public static final String METHOD_LOCK_METRICS = "lockMetrics";
+
+    /**
+     * Number of write transactions that waited at least a millisecond to start.
+     *
+     * Type: long
+     */
+    public static final String EXTRA_LOCK_WAITS = "lockWaits";
+
+    /**
+     * Time the {@link #EXTRA_LOCK_WAITS} write transactions spent waiting, in milliseconds.
+     *
+     * Type: long
+     */
+    public static final String EXTRA_LOCK_WAIT_MILLIS = "lockWaitMillis";
+
+    /**
+     * Number of write transactions that failed because the database stayed locked.
+     *
+     * Type: long
+     */
+    public static final String EXTRA_BUSY_ERRORS = "busyErrors";
+
     /**
      * Inner class that defines constant values for the habits database table.
      * Each entry in the table represents a single habit.
@@ -44,6 +229,38 @@ public final class HabitContract {
         /** The content URI to access the habit data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_HABITS);
 
+        /**
+         * Returns the URI that increments the frequency of the habit with the given id.
+         */
+        public static Uri buildIncrementUri(long id) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_INCREMENT)
+                    .build();
+        }
+
+        /**
+         * Returns the URI that records activity for the habit with the given id.
+         */
+        public static Uri buildActivityUri(long id) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_ACTIVITY)
+                    .build();
+        }
+
+        /**
+         * Returns the URI that reads the history of the habit with the given id per period,
+         * one of the {@link HabitRollupEntry} PERIOD_* values.
+         */
+        public static Uri buildHistoryUri(long id, String period) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_HISTORY)
+                    .appendQueryParameter(HabitRollupEntry.QUERY_PARAM_PERIOD, period)
+                    .build();
+        }
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of habits.
          */
@@ -99,6 +316,16 @@ public final class HabitContract {
          */
         public final static String COLUMN_HABIT_FREQUENCY = "frequency";
 
+        /**
+         * All columns of the habits table.
+         */
+        public static final String[] ALL_COLUMNS = {
+                _ID,
+                COLUMN_HABIT_NAME,
+                COLUMN_HABIT_DAYOFWEEK,
+                COLUMN_HABIT_TIMEOFDAY,
+                COLUMN_HABIT_FREQUENCY};
+
         /**
          * Possible values for the time of day of the habit.
          */
@@ -106,6 +333,48 @@ public final class HabitContract {
         public static final int TIMEOFDAY_AFTERNOON = 1;
         public static final int TIMEOFDAY_EVENING = 2;
 
+        /*
+         * Query parameters that can be appended to {@link #CONTENT_URI} to filter and sort the
+         * habits. Queries that use any of them must pass a null selection and sort order; the
+         * provider builds the SQL from a fixed set of parameterized templates instead, so the
+         * compiled statements can be reused. The resulting cursor holds all columns, whatever
+         * the projection.
+         *
+         * For instance, content://com.example.android.habitapp/habits?timeOfDay=0&sort=name
+         * returns the morning habits sorted by name.
+         */
+
+        /** Only habits with this time of day, one of the TIMEOFDAY_* values. */
+        public static final String QUERY_PARAM_TIMEOFDAY = "timeOfDay";
+
+        /**
+         * Only habits performed on this day of the week. Matched like
+         * {@link #dayOfWeekIndex(String)}: case insensitively on the first three letters, so
+         * "mon" and "MONDAY" both match "Monday". Other values are rejected.
+         */
+        public static final String QUERY_PARAM_DAYOFWEEK = "dayOfWeek";
+
+        /** Only habits with a frequency greater than or equal to this value. */
+        public static final String QUERY_PARAM_MIN_FREQUENCY = "minFrequency";
+
+        /** Only habits with a frequency less than or equal to this value. */
+        public static final String QUERY_PARAM_MAX_FREQUENCY = "maxFrequency";
+
+        /** Only habits whose name starts with this value, ignoring case. */
+        public static final String QUERY_PARAM_NAME_PREFIX = "namePrefix";
+
+        /** Sort key, one of the SORT_* values. Defaults to {@link #SORT_ID}. */
+        public static final String QUERY_PARAM_SORT = "sort";
+
+        /**
+         * Possible values for {@link #QUERY_PARAM_SORT}.
+         */
+        public static final String SORT_ID = "id";
+        public static final String SORT_NAME = "name";
+        public static final String SORT_TIMEOFDAY = "timeOfDay";
+        public static final String SORT_FREQUENCY = "frequency";
+        public static final String SORT_FREQUENCY_DESC = "-frequency";
+
         /**
          * Returns whether or not the given timeOfDay is {@link #TIMEOFDAY_MORNING}, {@link #TIMEOFDAY_AFTERNOON},
          * or {@link #TIMEOFDAY_EVENING}.
@@ -116,6 +385,132 @@ public final class HabitContract {
             }
             return false;
         }
+
+        /** Index of {@link #dayOfWeekIndex(String)} for values that are not a day name */
+        public static final int DAYOFWEEK_UNKNOWN = 7;
+
+        /** Three letter prefixes of the day names, Monday first */
+        private static final String[] DAY_PREFIXES =
+                {"mon", "tue", "wed", "thu", "fri", "sat", "sun"};
+
+        /**
+         * Returns the index of a free text day of week such as "Monday" or "tue", from 0 for
+         * Monday to 6 for Sunday, or {@link #DAYOFWEEK_UNKNOWN} if it is not recognised.
+         */
+        public static int dayOfWeekIndex(String dayOfWeek) {
+            if (dayOfWeek == null || dayOfWeek.length() < 3) {
+                return DAYOFWEEK_UNKNOWN;
+            }
+            for (int i = 0; i < DAY_PREFIXES.length; i++) {
+                if (dayOfWeek.regionMatches(true, 0, DAY_PREFIXES[i], 0, 3)) {
+                    return i;
+                }
+            }
+            return DAYOFWEEK_UNKNOWN;
+        }
+
+        /**
+         * Returns the lower case three letter prefix of a day of week index, such as "mon".
+         */
+        public static String dayOfWeekPrefix(int dayOfWeekIndex) {
+            return DAY_PREFIXES[dayOfWeekIndex];
+        }
     }
 
+    /**
+     * Inner class that defines constant values for the habit activity database table.
+     * Each entry in the table records that a habit was performed one or more times.
+     */
+    public static final class HabitActivityEntry implements BaseColumns {
+
+        /**
+         * The MIME type of a single activity entry.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ACTIVITY;
+
+        /** Name of database table for habit activity */
+        public final static String TABLE_NAME = "activity";
+
+        /**
+         * Unique ID number for the activity (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * {@link HabitEntry#_ID} of the habit that was performed.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_HABIT_ID = "habitId";
+
+        /**
+         * Time the habit was performed, in milliseconds since the epoch. Defaults to now.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TIMESTAMP = "timestamp";
+
+        /**
+         * Number of times the habit was performed. Defaults to 1 and must be positive.
+         * Positive increments through {@link HabitContract#PATH_INCREMENT} are recorded here too;
+         * negative ones correct the frequency and are not recorded.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_COUNT = "count";
+    }
+
+    /**
+     * Inner class that defines constant values for the weekly and monthly activity rollup
+     * tables. Each entry holds the summed {@link HabitActivityEntry#COLUMN_COUNT} of one habit
+     * for one period. Both tables have the same columns.
+     */
+    public static final class HabitRollupEntry {
+
+        /**
+         * The MIME type of the history of a habit.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        /** Name of database table for weekly rollups */
+        public final static String WEEKLY_TABLE_NAME = "activity_weekly";
+
+        /** Name of database table for monthly rollups */
+        public final static String MONTHLY_TABLE_NAME = "activity_monthly";
+
+        /**
+         * {@link HabitEntry#_ID} of the habit.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_HABIT_ID = "habitId";
+
+        /**
+         * Start of the period in milliseconds since the epoch, UTC. Weeks start on Monday and
+         * months on their first day.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PERIOD_START = "periodStart";
+
+        /**
+         * Number of times the habit was performed in the period.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_COUNT = "count";
+
+        /** Query parameter of the history URI that selects the period, one of the PERIOD_* values. */
+        public static final String QUERY_PARAM_PERIOD = "period";
+
+        /**
+         * Possible values for {@link #QUERY_PARAM_PERIOD}. Defaults to {@link #PERIOD_WEEK}.
+         */
+        public static final String PERIOD_WEEK = "week";
+        public static final String PERIOD_MONTH = "month";
+    }
 }
@@ -4,7 +4,9 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.habitapp.data.HabitContract.HabitActivityEntry;
 import com.example.android.habitapp.data.HabitContract.HabitEntry;
+import com.example.android.habitapp.data.HabitContract.HabitRollupEntry;
 
 /**
  * Database helper for Habits app. Manages database creation and version management.
@@ -19,15 +21,32 @@ public class HabitDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
+
+    /**
+     * Helper shared by the whole process, so the provider and the other readers of the
+     * database use one connection pool
+     */
+    private static HabitDbHelper sInstance;
 
     /**
      * Constructs a new instance of {@link HabitDbHelper}.
      *
      * @param context of the app
+     * @param name    of the database file
+     */
+    HabitDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Returns the {@link HabitDbHelper} of the app's database, shared by the whole process.
      */
-    public HabitDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    public static synchronized HabitDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new HabitDbHelper(context.getApplicationContext(), DATABASE_NAME);
+        }
+        return sInstance;
     }
 
     /**
@@ -45,6 +64,56 @@ public class HabitDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_TABLE_HABITS);
+
+        createActivityTables(db);
+    }
+
+    /**
+     * Creates the habit activity table and its weekly and monthly rollup tables.
+     * Added in database version 3.
+     */
+    private void createActivityTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + HabitActivityEntry.TABLE_NAME + " ("
+                + HabitActivityEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + HabitActivityEntry.COLUMN_HABIT_ID + " INTEGER NOT NULL, "
+                + HabitActivityEntry.COLUMN_TIMESTAMP + " INTEGER NOT NULL, "
+                + HabitActivityEntry.COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 1);");
+
+        // The history query reads the activity of one habit, the retention job the oldest
+        // activity of all habits
+        db.execSQL("CREATE INDEX " + HabitActivityEntry.TABLE_NAME + "_habit ON "
+                + HabitActivityEntry.TABLE_NAME + " (" + HabitActivityEntry.COLUMN_HABIT_ID
+                + ", " + HabitActivityEntry.COLUMN_TIMESTAMP + ");");
+        db.execSQL("CREATE INDEX " + HabitActivityEntry.TABLE_NAME + "_timestamp ON "
+                + HabitActivityEntry.TABLE_NAME + " (" + HabitActivityEntry.COLUMN_TIMESTAMP + ");");
+
+        for (String table : new String[] {
+                HabitRollupEntry.WEEKLY_TABLE_NAME, HabitRollupEntry.MONTHLY_TABLE_NAME}) {
+            db.execSQL("CREATE TABLE " + table + " ("
+                    + HabitRollupEntry.COLUMN_HABIT_ID + " INTEGER NOT NULL, "
+                    + HabitRollupEntry.COLUMN_PERIOD_START + " INTEGER NOT NULL, "
+                    + HabitRollupEntry.COLUMN_COUNT + " INTEGER NOT NULL, "
+                    + "PRIMARY KEY (" + HabitRollupEntry.COLUMN_HABIT_ID + ", "
+                    + HabitRollupEntry.COLUMN_PERIOD_START + "));");
+        }
+    }
+
+    /**
+     * This is called when the database has been opened.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Write-ahead logging gives the database a pool of read connections, so readers such
+        // as HabitAnalytics run side by side instead of queueing for a single connection
+        if (!db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+
+        // Keep a prepared statement for each of the HabitQueryCompiler.TEMPLATE_COUNT query
+        // templates, next to the provider's other statements such as the batched deletes,
+        // whose SQL varies with the number of ids
+        db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
     }
 
     /**
@@ -52,6 +121,8 @@ public class HabitDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        if (oldVersion < 3) {
+            createActivityTables(db);
+        }
     }
 }
@@ -0,0 +1,230 @@
+package com.example.android.habitapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.util.Log;
+
+import com.example.android.habitapp.data.HabitContract.HabitEntry;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges rapid repeated frequency increments into a single write per habit.
+ *
+ * Each call to {@link #increment(long)} only adds to a pending delta. The first pending delta
+ * schedules a flush after the coalescing window, which sends one increment URI update per habit
+ * with the summed delta. Because the provider applies the delta in SQL, merged taps from
+ * several coalescers or processes still add up correctly.
+ *
+ * A delta whose write throws is kept, together with every delta not yet written, and retried
+ * on the next flush. A delta the provider rejects, because the habit is gone or its frequency
+ * would drop below zero, is logged and dropped.
+ */
+public class HabitIncrementCoalescer {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = HabitIncrementCoalescer.class.getSimpleName();
+
+    /** Default time to wait for more taps before writing, in milliseconds */
+    public static final long DEFAULT_WINDOW_MILLIS = 300;
+
+    /** Writes the merged increments */
+    private final Writer mWriter;
+
+    /** Time to wait for more taps before writing, in milliseconds */
+    private final long mWindowMillis;
+
+    /** Background thread the writes run on, so taps never block the caller */
+    private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1);
+
+    /** Pending deltas by habit ID. Guarded by this. */
+    private Map<Long, Integer> mPending = new HashMap<>();
+
+    /** Whether a flush is already scheduled. Guarded by this. */
+    private boolean mFlushScheduled;
+
+    /** Whether {@link #close()} was called. Guarded by this. */
+    private boolean mClosed;
+
+    /**
+     * Held for a whole flush, so flushes run one at a time and a flush sees the deltas an
+     * earlier one failed to write
+     */
+    private final Object mFlushLock = new Object();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                // The unwritten deltas were kept and another flush is scheduled
+                Log.e(LOG_TAG, "Failed to write pending increments", e);
+            }
+        }
+    };
+
+    /**
+     * Constructs a new instance of {@link HabitIncrementCoalescer} with the
+     * {@link #DEFAULT_WINDOW_MILLIS} coalescing window.
+     *
+     * @param contentResolver to write the increments through
+     */
+    public HabitIncrementCoalescer(ContentResolver contentResolver) {
+        this(contentResolver, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * Constructs a new instance of {@link HabitIncrementCoalescer}.
+     *
+     * @param contentResolver to write the increments through
+     * @param windowMillis    time to wait for more taps before writing
+     */
+    public HabitIncrementCoalescer(ContentResolver contentResolver, long windowMillis) {
+        this(new ResolverWriter(contentResolver), windowMillis);
+    }
+
+    /**
+     * Constructs a new instance of {@link HabitIncrementCoalescer} that writes through the
+     * given writer.
+     *
+     * @param writer       to write the increments through
+     * @param windowMillis time to wait for more taps before writing
+     */
+    HabitIncrementCoalescer(Writer writer, long windowMillis) {
+        mWriter = writer;
+        mWindowMillis = windowMillis;
+        // A flush still waiting for its window is done by close() itself
+        mExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Adds one to the frequency of the habit with the given ID.
+     */
+    public void increment(long habitId) {
+        add(habitId, 1);
+    }
+
+    /**
+     * Adds the given delta to the frequency of the habit with the given ID.
+     *
+     * @throws IllegalStateException if the coalescer was closed
+     */
+    public synchronized void add(long habitId, int delta) {
+        if (mClosed) {
+            throw new IllegalStateException("Increment of habit " + habitId + " after close");
+        }
+        addPending(habitId, delta);
+        scheduleFlush();
+    }
+
+    /**
+     * Writes all pending deltas now, on the calling thread. Call this from a background thread,
+     * for instance before the app is backgrounded, to avoid losing taps still in the window.
+     */
+    public void flush() {
+        synchronized (mFlushLock) {
+            Map<Long, Integer> pending;
+            synchronized (this) {
+                pending = mPending;
+                mPending = new HashMap<>();
+                mFlushScheduled = false;
+            }
+
+            // Each delta leaves the map only once it is written, so whatever is left when a
+            // write throws goes back into the pending deltas
+            Iterator<Map.Entry<Long, Integer>> iterator = pending.entrySet().iterator();
+            try {
+                while (iterator.hasNext()) {
+                    Map.Entry<Long, Integer> entry = iterator.next();
+                    int delta = entry.getValue();
+                    if (delta != 0 && mWriter.addToFrequency(entry.getKey(), delta) == 0) {
+                        Log.w(LOG_TAG, "Failed to add " + delta + " to habit " + entry.getKey());
+                    }
+                    iterator.remove();
+                }
+            } finally {
+                if (!pending.isEmpty()) {
+                    requeue(pending);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting taps, writes all pending deltas and stops the background thread.
+     * A scheduled flush that is already writing is waited for, and whatever it failed to write
+     * is written here. If the final write throws, the unwritten deltas stay pending for
+     * another {@link #flush()}.
+     */
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+        mExecutor.shutdown();
+        flush();
+    }
+
+    /**
+     * Puts deltas that could not be written back into the pending deltas and schedules
+     * another flush.
+     */
+    private synchronized void requeue(Map<Long, Integer> unwritten) {
+        Log.w(LOG_TAG, "Keeping " + unwritten.size() + " unwritten increments for the next flush");
+        for (Map.Entry<Long, Integer> entry : unwritten.entrySet()) {
+            addPending(entry.getKey(), entry.getValue());
+        }
+        if (!mClosed) {
+            scheduleFlush();
+        }
+    }
+
+    /** Adds to the pending delta of a habit. Must be called while holding this. */
+    private void addPending(long habitId, int delta) {
+        Integer pending = mPending.get(habitId);
+        mPending.put(habitId, pending == null ? delta : pending + delta);
+    }
+
+    /** Schedules a flush unless one is already scheduled. Must be called while holding this. */
+    private void scheduleFlush() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mExecutor.schedule(mFlushRunnable, mWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes a merged delta to the frequency of a habit.
+     */
+    interface Writer {
+
+        /**
+         * Adds the delta to the frequency of the habit and returns the number of rows updated.
+         */
+        int addToFrequency(long habitId, int delta);
+    }
+
+    /**
+     * Writes the deltas through the increment URI of {@link HabitProvider}.
+     */
+    private static final class ResolverWriter implements Writer {
+
+        private final ContentResolver mContentResolver;
+
+        ResolverWriter(ContentResolver contentResolver) {
+            mContentResolver = contentResolver;
+        }
+
+        @Override
+        public int addToFrequency(long habitId, int delta) {
+            ContentValues values = new ContentValues();
+            values.put(HabitEntry.COLUMN_HABIT_FREQUENCY, delta);
+            return mContentResolver.update(
+                    HabitEntry.buildIncrementUri(habitId), values, null, null);
+        }
+    }
+}
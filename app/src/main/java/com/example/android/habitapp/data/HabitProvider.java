@@ -5,11 +5,34 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.database.sqlite.SQLiteDebug;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Process;
+import android.support.v4.os.TraceCompat;
 import android.util.Log;
 
+import com.example.android.habitapp.data.HabitContract.HabitActivityEntry;
 import com.example.android.habitapp.data.HabitContract.HabitEntry;
+import com.example.android.habitapp.data.HabitContract.HabitRollupEntry;
+import com.example.android.habitapp.startup.StartupBudget;
+import com.example.android.habitapp.startup.StartupTimer;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * {@link ContentProvider} for Habits app.
@@ -25,6 +48,15 @@ public class HabitProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single pet in the habits table */
     private static final int HABIT_ID = 201;
 
+    /** URI matcher code for the content URI that increments the frequency of a single habit */
+    private static final int HABIT_INCREMENT = 202;
+
+    /** URI matcher code for the content URI that records activity for a single habit */
+    private static final int HABIT_ACTIVITY = 203;
+
+    /** URI matcher code for the content URI for the history of a single habit */
+    private static final int HABIT_HISTORY = 204;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -52,67 +84,293 @@ public class HabitProvider extends ContentProvider {
         // For example, "content://com.example.android.habits/habits/3" matches, but
         // "content://com.example.android.habits/habits" (without a number at the end) doesn't match.
         sUriMatcher.addURI(HabitContract.CONTENT_AUTHORITY, HabitContract.PATH_HABITS + "/#", HABIT_ID);
+
+        // The content URI of the form "content://com.example.android.habits/habits/#/increment"
+        // will map to the integer code {@link #HABIT_INCREMENT}. It is only used for updates.
+        sUriMatcher.addURI(HabitContract.CONTENT_AUTHORITY,
+                HabitContract.PATH_HABITS + "/#/" + HabitContract.PATH_INCREMENT, HABIT_INCREMENT);
+
+        // The content URIs of the form "content://com.example.android.habits/habits/#/activity"
+        // and "content://com.example.android.habits/habits/#/history" will map to the integer
+        // codes {@link #HABIT_ACTIVITY} and {@link #HABIT_HISTORY}.
+        sUriMatcher.addURI(HabitContract.CONTENT_AUTHORITY,
+                HabitContract.PATH_HABITS + "/#/" + HabitContract.PATH_ACTIVITY, HABIT_ACTIVITY);
+        sUriMatcher.addURI(HabitContract.CONTENT_AUTHORITY,
+                HabitContract.PATH_HABITS + "/#/" + HabitContract.PATH_HISTORY, HABIT_HISTORY);
     }
 
+    /**
+     * Random start of the data version in this process. A version stamp handed to another
+     * process before this one restarted is then as good as certain not to match a version
+     * handed out after the restart, however many writes either process made.
+     */
+    private static final long sDataVersionEpoch = new SecureRandom().nextLong();
+
+    /**
+     * Number of writes that changed at least one row since the process started.
+     * Readers such as {@link HabitAnalytics} key their caches on the resulting version.
+     */
+    private static final AtomicLong sDataVersion = new AtomicLong();
+
+    /**
+     * Size a {@link HabitContract#METHOD_BULK_READ} page may reach before it is cut short,
+     * well below the 1 MB binder transaction limit that the reply has to fit in.
+     */
+    private static final int BULK_READ_MAX_BYTES = 256 * 1024;
+
+    /** A write transaction that waits at least this long to start counts as a lock wait */
+    private static final long LOCK_WAIT_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** Lock waits and busy errors of write transactions, see {@link #beginWriteTransaction} */
+    private static final AtomicLong sLockWaits = new AtomicLong();
+    private static final AtomicLong sLockWaitNanos = new AtomicLong();
+    private static final AtomicLong sBusyErrors = new AtomicLong();
+
+    /**
+     * Number of habits deleted per statement, below SQLite's limit of 999 arguments
+     * per statement.
+     */
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    /**
+     * Delay before the {@link HabitRetentionJob} runs, so it doesn't compete with the launch
+     * for the database, in seconds
+     */
+    private static final long RETENTION_DELAY_SECONDS = 10;
+
+    /** Time between runs of the {@link HabitRetentionJob}, in seconds */
+    private static final long RETENTION_INTERVAL_SECONDS = TimeUnit.DAYS.toSeconds(1);
+
+    /** Background thread for the {@link HabitRetentionJob} */
+    private static final ScheduledExecutorService sRetentionExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
     /** Database helper object */
     private HabitDbHelper mDbHelper;
 
+    /** Scheduled runs of the {@link HabitRetentionJob} for this provider's database */
+    private ScheduledFuture<?> mRetention;
+
+    /** Whether the database was opened through {@link #getDatabase(boolean)} before */
+    private volatile boolean mDatabaseOpened;
+
+    /**
+     * Constructs a new instance of {@link HabitProvider} on the app's database.
+     */
+    public HabitProvider() {
+    }
+
+    /**
+     * Constructs a new instance of {@link HabitProvider} on the database of the given helper,
+     * so tests can run the provider against a database of their own.
+     *
+     * @param dbHelper of the database to use
+     */
+    HabitProvider(HabitDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Returns the current version of the habit data. The value changes after every write, so
+     * two equal values mean nothing was written in between.
+     */
+    public static long getDataVersion() {
+        return sDataVersionEpoch + sDataVersion.get();
+    }
+
+    /**
+     * Records that the habit data changed.
+     */
+    static void notifyDataChanged() {
+        sDataVersion.incrementAndGet();
+    }
+
+    /**
+     * Begin a write transaction and record how long it waited to start. Writers in this process
+     * queue for the database's single primary connection, and a writer in another process holds
+     * the file lock, so this is where write contention shows. A transaction that gives up
+     * because the database stayed locked is counted as a busy error.
+     */
+    private static void beginWriteTransaction(SQLiteDatabase database) {
+        long startNanos = System.nanoTime();
+        try {
+            database.beginTransaction();
+        } catch (SQLiteDatabaseLockedException e) {
+            sBusyErrors.incrementAndGet();
+            throw e;
+        }
+        long waitNanos = System.nanoTime() - startNanos;
+        if (waitNanos >= LOCK_WAIT_THRESHOLD_NANOS) {
+            sLockWaits.incrementAndGet();
+            sLockWaitNanos.addAndGet(waitNanos);
+        }
+    }
+
     @Override
     public boolean onCreate() {
-        mDbHelper = new HabitDbHelper(getContext());
-        return true;
+        StartupTimer.beginPhase(StartupBudget.PHASE_PROVIDER_CREATE);
+        try {
+            if (mDbHelper == null) {
+                mDbHelper = HabitDbHelper.getInstance(getContext());
+            }
+
+            // Roll up old activity off the main thread, first after the launch so the first
+            // open of the database happens where the UI first needs it, then once a day for
+            // as long as the process lives
+            mRetention = sRetentionExecutor.scheduleWithFixedDelay(
+                    new HabitRetentionJob(mDbHelper), RETENTION_DELAY_SECONDS,
+                    RETENTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            return true;
+        } finally {
+            StartupTimer.endPhase(StartupBudget.PHASE_PROVIDER_CREATE);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        // Only called by tests, which delete their database afterwards
+        mRetention.cancel(false);
+        super.shutdown();
+    }
+
+    /**
+     * Return the database for writing, or for reading only if the writable flag is false.
+     * The first call opens the database, creating or upgrading it if needed, and is timed
+     * as {@link StartupBudget#PHASE_FIRST_DATABASE_OPEN}.
+     */
+    private SQLiteDatabase getDatabase(boolean writable) {
+        if (mDatabaseOpened) {
+            return writable ? mDbHelper.getWritableDatabase() : mDbHelper.getReadableDatabase();
+        }
+        StartupTimer.beginPhase(StartupBudget.PHASE_FIRST_DATABASE_OPEN);
+        try {
+            SQLiteDatabase database =
+                    writable ? mDbHelper.getWritableDatabase() : mDbHelper.getReadableDatabase();
+            mDatabaseOpened = true;
+            return database;
+        } finally {
+            StartupTimer.endPhase(StartupBudget.PHASE_FIRST_DATABASE_OPEN);
+        }
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
-
-        // This cursor will hold the result of the query
-        Cursor cursor;
+        TraceCompat.beginSection("HabitProvider.query");
+        try {
+            // Get readable database
+            SQLiteDatabase database = getDatabase(false);
+
+            // This cursor will hold the result of the query
+            Cursor cursor;
+
+            // Figure out if the URI matcher can match the URI to a specific code
+            int match = sUriMatcher.match(uri);
+            switch (match) {
+                case HABITS:
+                    if (HabitQueryCompiler.hasQueryParameters(uri)) {
+                        // The URI carries structured filter and sort parameters. Those compile to
+                        // one of a fixed set of parameterized statements, so they can't be mixed
+                        // with a free-form selection or sort order.
+                        if (selection != null || sortOrder != null) {
+                            throw new IllegalArgumentException(
+                                    "Selection and sort order must be null for " + uri);
+                        }
+                        HabitQueryCompiler.CompiledQuery query =
+                                HabitQueryCompiler.compile(uri, projection);
+                        cursor = database.rawQuery(query.sql, query.selectionArgs);
+                        break;
+                    }
+
+                    // For the HABITS code, query the habits table directly with the given
+                    // projection, selection, selection arguments, and sort order. The cursor
+                    // could contain multiple rows of the habits table.
+                    cursor = database.query(HabitEntry.TABLE_NAME, projection, selection, selectionArgs,
+                            null, null, sortOrder);
+                    break;
+                case HABIT_ID:
+                    // For the HABIT_ID code, extract out the ID from the URI.
+                    // For an example URI such as "content://com.example.android.habits/habits/3",
+                    // the selection will be "_id=?" and the selection argument will be a
+                    // String array containing the actual ID of 3 in this case.
+                    //
+                    // For every "?" in the selection, we need to have an element in the selection
+                    // arguments that will fill in the "?". Since we have 1 question mark in the
+                    // selection, we have 1 String in the selection arguments' String array.
+                    selection = HabitEntry._ID + "=?";
+                    selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+
+                    // This will perform a query on the habits table where the _id equals 3 to return a
+                    // Cursor containing that row of the table.
+                    cursor = database.query(HabitEntry.TABLE_NAME, projection, selection, selectionArgs,
+                            null, null, sortOrder);
+                    break;
+                case HABIT_HISTORY:
+                    cursor = queryHistory(database, uri);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+            }
+            return cursor;
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
-        switch (match) {
-            case HABITS:
-                // For the HABITS code, query the habits table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the habits table.
-                cursor = database.query(HabitEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
-            case HABIT_ID:
-                // For the HABIT_ID code, extract out the ID from the URI.
-                // For an example URI such as "content://com.example.android.habits/habits/3",
-                // the selection will be "_id=?" and the selection argument will be a
-                // String array containing the actual ID of 3 in this case.
-                //
-                // For every "?" in the selection, we need to have an element in the selection
-                // arguments that will fill in the "?". Since we have 1 question mark in the
-                // selection, we have 1 String in the selection arguments' String array.
-                selection = HabitEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-
-                // This will perform a query on the habits table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(HabitEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
-            default:
-                throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+    /**
+     * Query how often a habit was performed per week or month. Periods whose detail activity
+     * was already rolled up by the {@link HabitRetentionJob} are read from the rollup table,
+     * newer periods from the detail activity, and a period split between both is summed.
+     * The cursor has the {@link HabitRollupEntry#COLUMN_PERIOD_START} and
+     * {@link HabitRollupEntry#COLUMN_COUNT} columns, ordered by period.
+     */
+    private Cursor queryHistory(SQLiteDatabase database, Uri uri) {
+        String period = uri.getQueryParameter(HabitRollupEntry.QUERY_PARAM_PERIOD);
+        String rollupTable;
+        String periodStartSql;
+        if (period == null || HabitRollupEntry.PERIOD_WEEK.equals(period)) {
+            rollupTable = HabitRollupEntry.WEEKLY_TABLE_NAME;
+            periodStartSql = HabitRetentionJob.WEEK_START_SQL;
+        } else if (HabitRollupEntry.PERIOD_MONTH.equals(period)) {
+            rollupTable = HabitRollupEntry.MONTHLY_TABLE_NAME;
+            periodStartSql = HabitRetentionJob.MONTH_START_SQL;
+        } else {
+            throw new IllegalArgumentException("Invalid period " + period);
         }
-        return cursor;
+
+        // The ID is the second to last path segment, in front of "history"
+        String habitId = uri.getPathSegments().get(1);
+
+        String sql = "SELECT " + HabitRollupEntry.COLUMN_PERIOD_START + ", SUM("
+                + HabitRollupEntry.COLUMN_COUNT + ") AS " + HabitRollupEntry.COLUMN_COUNT
+                + " FROM (SELECT " + HabitRollupEntry.COLUMN_PERIOD_START + ", "
+                + HabitRollupEntry.COLUMN_COUNT + " FROM " + rollupTable
+                + " WHERE " + HabitRollupEntry.COLUMN_HABIT_ID + "=?1"
+                + " UNION ALL SELECT " + periodStartSql + ", " + HabitActivityEntry.COLUMN_COUNT
+                + " FROM " + HabitActivityEntry.TABLE_NAME
+                + " WHERE " + HabitActivityEntry.COLUMN_HABIT_ID + "=?1)"
+                + " GROUP BY " + HabitRollupEntry.COLUMN_PERIOD_START
+                + " ORDER BY " + HabitRollupEntry.COLUMN_PERIOD_START;
+        return database.rawQuery(sql, new String[] { habitId });
     }
 
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case HABITS:
-                return insertHabit(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        TraceCompat.beginSection("HabitProvider.insert");
+        try {
+            final int match = sUriMatcher.match(uri);
+            switch (match) {
+                case HABITS:
+                    return insertHabit(uri, contentValues);
+                case HABIT_ACTIVITY:
+                    // The ID is the second to last path segment, in front of "activity"
+                    long habitId = Long.parseLong(uri.getPathSegments().get(1));
+                    return insertActivity(uri, habitId, contentValues);
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        } finally {
+            TraceCompat.endSection();
         }
     }
 
@@ -142,36 +400,111 @@ public class HabitProvider extends ContentProvider {
 
 
         // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteDatabase database = getDatabase(true);
 
         // Insert the new habit with the given values
-        long id = database.insert(HabitEntry.TABLE_NAME, null, values);
+        long id;
+        beginWriteTransaction(database);
+        try {
+            id = database.insert(HabitEntry.TABLE_NAME, null, values);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
 
+        notifyDataChanged();
+
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId(uri, id);
     }
 
+    /**
+     * Record activity for the habit with the given ID, which must exist. The timestamp defaults
+     * to now and the count to 1. Return the new content URI for the activity row.
+     */
+    private Uri insertActivity(Uri uri, long habitId, ContentValues values) {
+        Long timestamp = values.getAsLong(HabitActivityEntry.COLUMN_TIMESTAMP);
+        if (timestamp == null) {
+            timestamp = System.currentTimeMillis();
+        } else if (timestamp < 0) {
+            throw new IllegalArgumentException("Activity requires valid timestamp");
+        }
+
+        Integer count = values.getAsInteger(HabitActivityEntry.COLUMN_COUNT);
+        if (count == null) {
+            count = 1;
+        } else if (count <= 0) {
+            throw new IllegalArgumentException("Activity requires valid count");
+        }
+
+        // Get writeable database
+        SQLiteDatabase database = getDatabase(true);
+
+        long id;
+        beginWriteTransaction(database);
+        try {
+            // Check in the same transaction, so the habit can't be deleted in between
+            if (DatabaseUtils.queryNumEntries(database, HabitEntry.TABLE_NAME,
+                    HabitEntry._ID + "=?", new String[] { String.valueOf(habitId) }) == 0) {
+                throw new IllegalArgumentException("Activity requires an existing habit");
+            }
+            id = recordActivity(database, habitId, timestamp, count);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        notifyDataChanged();
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Insert a detail row into the activity table. Return the ID of the new row, or -1 if the
+     * insertion failed.
+     */
+    private static long recordActivity(SQLiteDatabase database, long habitId, long timestamp,
+                                       int count) {
+        ContentValues activity = new ContentValues();
+        activity.put(HabitActivityEntry.COLUMN_HABIT_ID, habitId);
+        activity.put(HabitActivityEntry.COLUMN_TIMESTAMP, timestamp);
+        activity.put(HabitActivityEntry.COLUMN_COUNT, count);
+        return database.insert(HabitActivityEntry.TABLE_NAME, null, activity);
+    }
+
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case HABITS:
-                return updateHabit(uri, contentValues, selection, selectionArgs);
-            case HABIT_ID:
-                // For the HABIT_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = HabitEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateHabit(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+        TraceCompat.beginSection("HabitProvider.update");
+        try {
+            final int match = sUriMatcher.match(uri);
+            switch (match) {
+                case HABITS:
+                    return updateHabit(uri, contentValues, selection, selectionArgs);
+                case HABIT_ID:
+                    // For the HABIT_ID code, extract out the ID from the URI,
+                    // so we know which row to update. Selection will be "_id=?" and selection
+                    // arguments will be a String array containing the actual ID.
+                    selection = HabitEntry._ID + "=?";
+                    selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                    return updateHabit(uri, contentValues, selection, selectionArgs);
+                case HABIT_INCREMENT:
+                    // The ID is the second to last path segment, in front of "increment"
+                    long id = Long.parseLong(uri.getPathSegments().get(1));
+                    return incrementHabit(id, contentValues);
+                default:
+                    throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+        } finally {
+            TraceCompat.endSection();
         }
     }
 
@@ -215,32 +548,344 @@ public class HabitProvider extends ContentProvider {
         }
 
         // Otherwise, get writeable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteDatabase database = getDatabase(true);
 
         // Returns the number of database rows affected by the update statement
-        return database.update(HabitEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        beginWriteTransaction(database);
+        try {
+            rowsUpdated = database.update(HabitEntry.TABLE_NAME, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        if (rowsUpdated != 0) {
+            notifyDataChanged();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Add the {@link HabitEntry#COLUMN_HABIT_FREQUENCY} value of the content values to the
+     * frequency of the habit with the given ID. The addition happens in a single UPDATE
+     * statement, so it needs no read and can't lose concurrent increments. An increment that
+     * would make the frequency negative is not applied. An applied positive increment is also
+     * recorded as activity, in the same transaction. A negative one corrects the frequency and
+     * is not activity, just as the activity URI only accepts positive counts.
+     * Return the number of rows that were updated.
+     */
+    private int incrementHabit(long id, ContentValues values) {
+        Integer delta = values.getAsInteger(HabitEntry.COLUMN_HABIT_FREQUENCY);
+        if (delta == null) {
+            throw new IllegalArgumentException("Increment requires a frequency delta");
+        }
+        if (delta == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = getDatabase(true);
+        SQLiteStatement statement = database.compileStatement("UPDATE " + HabitEntry.TABLE_NAME
+                + " SET " + HabitEntry.COLUMN_HABIT_FREQUENCY + "="
+                + HabitEntry.COLUMN_HABIT_FREQUENCY + "+?1"
+                + " WHERE " + HabitEntry._ID + "=?2"
+                + " AND " + HabitEntry.COLUMN_HABIT_FREQUENCY + "+?1>=0");
+        int rowsUpdated;
+        beginWriteTransaction(database);
+        try {
+            statement.bindLong(1, delta);
+            statement.bindLong(2, id);
+            rowsUpdated = statement.executeUpdateDelete();
+            if (rowsUpdated != 0 && delta > 0) {
+                recordActivity(database, id, System.currentTimeMillis(), delta);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+        }
+
+        if (rowsUpdated != 0) {
+            notifyDataChanged();
+        }
+        return rowsUpdated;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        TraceCompat.beginSection("HabitProvider.delete");
+        try {
+            // Get writeable database
+            SQLiteDatabase database = getDatabase(true);
+
+            int rowsDeleted;
+
+            // Delete the habits and their activity together
+            beginWriteTransaction(database);
+            try {
+                rowsDeleted = deleteHabits(database, findHabitIds(database, uri, selection,
+                        selectionArgs));
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+
+            if (rowsDeleted != 0) {
+                notifyDataChanged();
+            }
+            return rowsDeleted;
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
 
+    /**
+     * Return the IDs of the habits given by the URI or by the selection and selection
+     * arguments.
+     */
+    private static List<Long> findHabitIds(SQLiteDatabase database, Uri uri, String selection,
+                                           String[] selectionArgs) {
+        List<Long> ids = new ArrayList<>();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case HABITS:
-                // Delete all rows that match the selection and selection args
-                return database.delete(HabitEntry.TABLE_NAME, selection, selectionArgs);
+                // Find all rows that match the selection and selection args
+                Cursor cursor = database.query(HabitEntry.TABLE_NAME,
+                        new String[] { HabitEntry._ID }, selection, selectionArgs,
+                        null, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        ids.add(cursor.getLong(0));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                return ids;
             case HABIT_ID:
-                // Delete a single row given by the ID in the URI
-                selection = HabitEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return database.delete(HabitEntry.TABLE_NAME, selection, selectionArgs);
+                // A single row given by the ID in the URI
+                ids.add(ContentUris.parseId(uri));
+                return ids;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
     }
 
+    /**
+     * Delete the habits with the given IDs together with their detail activity and rollups,
+     * {@link #DELETE_BATCH_SIZE} habits per statement. Every table is looked up by habit ID,
+     * so no table is scanned. Return the number of habits that were deleted.
+     */
+    private static int deleteHabits(SQLiteDatabase database, List<Long> ids) {
+        int rowsDeleted = 0;
+        for (int start = 0; start < ids.size(); start += DELETE_BATCH_SIZE) {
+            List<Long> batch = ids.subList(start, Math.min(start + DELETE_BATCH_SIZE, ids.size()));
+            String[] batchArgs = new String[batch.size()];
+            StringBuilder placeholders = new StringBuilder(" IN (");
+            for (int i = 0; i < batchArgs.length; i++) {
+                batchArgs[i] = String.valueOf(batch.get(i));
+                placeholders.append(i == 0 ? "?" : ",?");
+            }
+            placeholders.append(')');
+
+            rowsDeleted += database.delete(HabitEntry.TABLE_NAME,
+                    HabitEntry._ID + placeholders, batchArgs);
+            database.delete(HabitActivityEntry.TABLE_NAME,
+                    HabitActivityEntry.COLUMN_HABIT_ID + placeholders, batchArgs);
+            database.delete(HabitRollupEntry.WEEKLY_TABLE_NAME,
+                    HabitRollupEntry.COLUMN_HABIT_ID + placeholders, batchArgs);
+            database.delete(HabitRollupEntry.MONTHLY_TABLE_NAME,
+                    HabitRollupEntry.COLUMN_HABIT_ID + placeholders, batchArgs);
+        }
+        return rowsDeleted;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        TraceCompat.beginSection("HabitProvider.call");
+        try {
+            // The framework checks the read permission for query() but not for call()
+            if (Binder.getCallingUid() != Process.myUid()) {
+                getContext().enforceCallingPermission(HabitContract.PERMISSION_READ,
+                        "Reading habits requires " + HabitContract.PERMISSION_READ);
+            }
+
+            if (HabitContract.METHOD_BULK_READ.equals(method)) {
+                return bulkRead(extras);
+            }
+            if (HabitContract.METHOD_QUERY_METRICS.equals(method)) {
+                return getStatementCacheStats();
+            }
+            if (HabitContract.METHOD_LOCK_METRICS.equals(method)) {
+                Bundle result = new Bundle();
+                result.putLong(HabitContract.EXTRA_LOCK_WAITS, sLockWaits.get());
+                result.putLong(HabitContract.EXTRA_LOCK_WAIT_MILLIS,
+                        TimeUnit.NANOSECONDS.toMillis(sLockWaitNanos.get()));
+                result.putLong(HabitContract.EXTRA_BUSY_ERRORS, sBusyErrors.get());
+                return result;
+            }
+            return super.call(method, arg, extras);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Sum up the prepared statement cache figures of the database's connections, see
+     * {@link HabitContract#METHOD_QUERY_METRICS}.
+     */
+    private Bundle getStatementCacheStats() {
+        long hits = 0;
+        long misses = 0;
+        long size = 0;
+        // Before Jelly Bean the framework kept no per-connection statement cache figures
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            String path = getDatabase(false).getPath();
+            for (SQLiteDebug.DbStats dbStats : SQLiteDebug.getDatabaseInfo().dbStats) {
+                // The primary connection is listed under the path, the others under the path
+                // and their connection id. Attached databases have labels of their own.
+                if (!dbStats.dbName.equals(path) && !dbStats.dbName.startsWith(path + " (")) {
+                    continue;
+                }
+                // Formatted as hits/misses/size
+                String[] cache = dbStats.cache.split("/");
+                if (cache.length == 3) {
+                    hits += Long.parseLong(cache[0]);
+                    misses += Long.parseLong(cache[1]);
+                    size += Long.parseLong(cache[2]);
+                }
+            }
+        }
+
+        Bundle result = new Bundle();
+        result.putLong(HabitContract.EXTRA_STATEMENT_CACHE_HITS, hits);
+        result.putLong(HabitContract.EXTRA_STATEMENT_CACHE_MISSES, misses);
+        result.putLong(HabitContract.EXTRA_STATEMENT_CACHE_SIZE, size);
+        return result;
+    }
+
+    /**
+     * Read the requested columns of a page of habits into packed arrays, see
+     * {@link HabitContract#METHOD_BULK_READ}.
+     */
+    private Bundle bulkRead(Bundle extras) {
+        if (extras == null) {
+            extras = new Bundle();
+        }
+
+        // Read the version before the data. If a write slips in between, the caller gets the
+        // newer rows with the older stamp and simply reads them again next time.
+        long version = getDataVersion();
+
+        Bundle result = new Bundle();
+        result.putLong(HabitContract.EXTRA_VERSION, version);
+        boolean firstPage = !extras.containsKey(HabitContract.EXTRA_AFTER_ID);
+        if (firstPage && extras.containsKey(HabitContract.EXTRA_VERSION)
+                && extras.getLong(HabitContract.EXTRA_VERSION) == version) {
+            result.putBoolean(HabitContract.EXTRA_UNCHANGED, true);
+            return result;
+        }
+
+        String[] projection = extras.getStringArray(HabitContract.EXTRA_PROJECTION);
+        if (projection == null) {
+            projection = HabitEntry.ALL_COLUMNS;
+        }
+        for (String column : projection) {
+            if (!Arrays.asList(HabitEntry.ALL_COLUMNS).contains(column)) {
+                throw new IllegalArgumentException("Unknown column " + column);
+            }
+        }
+
+        int limit = extras.getInt(HabitContract.EXTRA_LIMIT, HabitContract.BULK_READ_DEFAULT_LIMIT);
+        if (limit <= 0 || limit > HabitContract.BULK_READ_MAX_LIMIT) {
+            throw new IllegalArgumentException("Invalid limit " + limit);
+        }
+        long afterId = extras.getLong(HabitContract.EXTRA_AFTER_ID, Long.MIN_VALUE);
+
+        // The _id is always read last, after the requested columns, to know where the next
+        // page starts
+        String[] queryColumns = Arrays.copyOf(projection, projection.length + 1);
+        queryColumns[projection.length] = HabitEntry._ID;
+        int idIndex = projection.length;
+
+        SQLiteDatabase database = getDatabase(false);
+        Cursor cursor = database.query(HabitEntry.TABLE_NAME, queryColumns,
+                HabitEntry._ID + ">?", new String[] { String.valueOf(afterId) },
+                null, null, HabitEntry._ID, String.valueOf(limit));
+        try {
+            // The cursor's window is filled in this process and copied once into the arrays,
+            // so only the packed arrays cross the binder. The arrays can be sized up front.
+            int rowCount = cursor.getCount();
+            Object[] columns = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                columns[i] = newColumnArray(projection[i], rowCount);
+            }
+
+            int row = 0;
+            long lastId = afterId;
+            long pageBytes = 0;
+            while (pageBytes < BULK_READ_MAX_BYTES && cursor.moveToNext()) {
+                for (int i = 0; i < projection.length; i++) {
+                    Object column = columns[i];
+                    if (column instanceof long[]) {
+                        ((long[]) column)[row] = cursor.getLong(i);
+                        pageBytes += 8;
+                    } else if (column instanceof int[]) {
+                        ((int[]) column)[row] = cursor.getInt(i);
+                        pageBytes += 4;
+                    } else {
+                        String value = cursor.getString(i);
+                        ((String[]) column)[row] = value;
+                        // A parcelled string takes a length and two bytes per character
+                        pageBytes += 4 + (value == null ? 0 : 2 * value.length());
+                    }
+                }
+                lastId = cursor.getLong(idIndex);
+                row++;
+            }
+
+            // A full page, or one cut short by its size, may be followed by more rows
+            if (row == limit || row < rowCount) {
+                result.putLong(HabitContract.EXTRA_NEXT_AFTER_ID, lastId);
+            }
+
+            result.putInt(HabitContract.EXTRA_ROW_COUNT, row);
+            for (int i = 0; i < projection.length; i++) {
+                Object column = columns[i];
+                // Only a page cut short by its size needs its arrays trimmed
+                if (column instanceof long[]) {
+                    long[] values = (long[]) column;
+                    result.putLongArray(projection[i],
+                            row == rowCount ? values : Arrays.copyOf(values, row));
+                } else if (column instanceof int[]) {
+                    int[] values = (int[]) column;
+                    result.putIntArray(projection[i],
+                            row == rowCount ? values : Arrays.copyOf(values, row));
+                } else {
+                    String[] values = (String[]) column;
+                    result.putStringArray(projection[i],
+                            row == rowCount ? values : Arrays.copyOf(values, row));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+
+    /**
+     * Returns an empty array of the type used for the given column in a bulk read result.
+     */
+    private static Object newColumnArray(String column, int rowCount) {
+        switch (column) {
+            case HabitEntry._ID:
+                return new long[rowCount];
+            case HabitEntry.COLUMN_HABIT_TIMEOFDAY:
+            case HabitEntry.COLUMN_HABIT_FREQUENCY:
+                return new int[rowCount];
+            default:
+                return new String[rowCount];
+        }
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -248,7 +893,12 @@ public class HabitProvider extends ContentProvider {
             case HABITS:
                 return HabitEntry.CONTENT_LIST_TYPE;
             case HABIT_ID:
+            case HABIT_INCREMENT:
                 return HabitEntry.CONTENT_ITEM_TYPE;
+            case HABIT_ACTIVITY:
+                return HabitActivityEntry.CONTENT_ITEM_TYPE;
+            case HABIT_HISTORY:
+                return HabitRollupEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -0,0 +1,203 @@
+package com.example.android.habitapp.data;
+
+import android.net.Uri;
+
+import com.example.android.habitapp.data.HabitContract.HabitEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns the structured query parameters of a habits URI (see
+ * {@link HabitEntry#QUERY_PARAM_TIMEOFDAY} and friends) into parameterized SQL.
+ *
+ * Every filter is a fixed clause that is always present and switched off by binding an empty
+ * argument, and the columns are always all of {@link HabitEntry#ALL_COLUMNS}. That leaves one
+ * SQL template per sort key, built once. Because the values are always bound as arguments, the
+ * same template is the same SQL string, which is what SQLite's prepared statement cache is
+ * keyed on, so every structured query can reuse a compiled statement.
+ */
+final class HabitQueryCompiler {
+
+    /** Filter parameters, in the order of their arguments */
+    private static final String[] FILTER_PARAMS = {
+            HabitEntry.QUERY_PARAM_TIMEOFDAY,
+            HabitEntry.QUERY_PARAM_DAYOFWEEK,
+            HabitEntry.QUERY_PARAM_MIN_FREQUENCY,
+            HabitEntry.QUERY_PARAM_MAX_FREQUENCY,
+            HabitEntry.QUERY_PARAM_NAME_PREFIX};
+
+    /**
+     * Filter clauses, one per parameter. Argument ?n belongs to the nth parameter, and an empty
+     * argument matches every row.
+     */
+    private static final String[] FILTER_CLAUSES = {
+            "(?1='' OR " + HabitEntry.COLUMN_HABIT_TIMEOFDAY + "=?1)",
+            "(?2='' OR lower(substr(" + HabitEntry.COLUMN_HABIT_DAYOFWEEK + ", 1, 3))=?2)",
+            "(?3='' OR " + HabitEntry.COLUMN_HABIT_FREQUENCY + ">=?3)",
+            "(?4='' OR " + HabitEntry.COLUMN_HABIT_FREQUENCY + "<=?4)",
+            "(?5='' OR " + HabitEntry.COLUMN_HABIT_NAME + " LIKE ?5 ESCAPE '\\')"};
+
+    /** Possible sort keys, see {@link HabitEntry#QUERY_PARAM_SORT} */
+    private static final String[] SORTS = {
+            HabitEntry.SORT_ID,
+            HabitEntry.SORT_NAME,
+            HabitEntry.SORT_TIMEOFDAY,
+            HabitEntry.SORT_FREQUENCY,
+            HabitEntry.SORT_FREQUENCY_DESC};
+
+    /** Number of distinct SQL strings the compiler produces */
+    static final int TEMPLATE_COUNT = SORTS.length;
+
+    /** SQL templates keyed by sort key */
+    private static final Map<String, String> TEMPLATES = new HashMap<>();
+
+    static {
+        for (String sort : SORTS) {
+            TEMPLATES.put(sort, buildSql(toOrderBy(sort)));
+        }
+    }
+
+    // To prevent someone from accidentally instantiating the compiler class,
+    // give it an empty constructor.
+    private HabitQueryCompiler() {}
+
+    /**
+     * Returns whether the URI uses any of the structured query parameters.
+     */
+    static boolean hasQueryParameters(Uri uri) {
+        for (String param : FILTER_PARAMS) {
+            if (uri.getQueryParameter(param) != null) {
+                return true;
+            }
+        }
+        return uri.getQueryParameter(HabitEntry.QUERY_PARAM_SORT) != null;
+    }
+
+    /**
+     * Compiles the structured query parameters of the given URI. The SQL returns all columns,
+     * whatever the projection.
+     *
+     * @param uri        with the query parameters
+     * @param projection columns the caller reads, or null for all columns. Only checked for
+     *                   unknown columns.
+     * @return the SQL and its bound arguments
+     */
+    static CompiledQuery compile(Uri uri, String[] projection) {
+        if (projection != null) {
+            for (String column : projection) {
+                if (!Arrays.asList(HabitEntry.ALL_COLUMNS).contains(column)) {
+                    throw new IllegalArgumentException("Unknown column " + column);
+                }
+            }
+        }
+
+        String[] args = new String[FILTER_PARAMS.length];
+        for (int i = 0; i < FILTER_PARAMS.length; i++) {
+            String value = uri.getQueryParameter(FILTER_PARAMS[i]);
+            args[i] = value == null ? "" : toArgument(FILTER_PARAMS[i], value);
+        }
+
+        String sort = uri.getQueryParameter(HabitEntry.QUERY_PARAM_SORT);
+        if (sort == null) {
+            sort = HabitEntry.SORT_ID;
+        }
+        String sql = TEMPLATES.get(sort);
+        if (sql == null) {
+            throw new IllegalArgumentException("Invalid sort " + sort);
+        }
+        return new CompiledQuery(sql, args);
+    }
+
+    /**
+     * Validates a filter value and converts it into the argument bound to its clause.
+     */
+    private static String toArgument(String param, String value) {
+        switch (param) {
+            case HabitEntry.QUERY_PARAM_TIMEOFDAY:
+                int timeOfDay = parseInt(param, value);
+                if (!HabitEntry.isValidTimeOfDay(timeOfDay)) {
+                    throw new IllegalArgumentException("Invalid time of day " + value);
+                }
+                return String.valueOf(timeOfDay);
+            case HabitEntry.QUERY_PARAM_DAYOFWEEK:
+                // Compare on the lower case three letter prefix, as the stats do
+                int dayOfWeekIndex = HabitEntry.dayOfWeekIndex(value);
+                if (dayOfWeekIndex == HabitEntry.DAYOFWEEK_UNKNOWN) {
+                    throw new IllegalArgumentException("Invalid day of week " + value);
+                }
+                return HabitEntry.dayOfWeekPrefix(dayOfWeekIndex);
+            case HabitEntry.QUERY_PARAM_MIN_FREQUENCY:
+            case HabitEntry.QUERY_PARAM_MAX_FREQUENCY:
+                int frequency = parseInt(param, value);
+                if (frequency < 0) {
+                    throw new IllegalArgumentException("Invalid frequency " + value);
+                }
+                return String.valueOf(frequency);
+            case HabitEntry.QUERY_PARAM_NAME_PREFIX:
+                // Escape the LIKE wildcards so the prefix is matched literally
+                return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+            default:
+                return value;
+        }
+    }
+
+    private static int parseInt(String param, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + param + " " + value);
+        }
+    }
+
+    /**
+     * Returns the ORDER BY clause for a sort key.
+     */
+    private static String toOrderBy(String sort) {
+        switch (sort) {
+            case HabitEntry.SORT_ID:
+                return HabitEntry._ID;
+            case HabitEntry.SORT_NAME:
+                return HabitEntry.COLUMN_HABIT_NAME + " COLLATE NOCASE, " + HabitEntry._ID;
+            case HabitEntry.SORT_TIMEOFDAY:
+                return HabitEntry.COLUMN_HABIT_TIMEOFDAY + ", " + HabitEntry._ID;
+            case HabitEntry.SORT_FREQUENCY:
+                return HabitEntry.COLUMN_HABIT_FREQUENCY + ", " + HabitEntry._ID;
+            case HabitEntry.SORT_FREQUENCY_DESC:
+                return HabitEntry.COLUMN_HABIT_FREQUENCY + " DESC, " + HabitEntry._ID;
+            default:
+                throw new IllegalArgumentException("Invalid sort " + sort);
+        }
+    }
+
+    private static String buildSql(String orderBy) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < HabitEntry.ALL_COLUMNS.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(HabitEntry.ALL_COLUMNS[i]);
+        }
+        sql.append(" FROM ").append(HabitEntry.TABLE_NAME);
+
+        for (int i = 0; i < FILTER_CLAUSES.length; i++) {
+            sql.append(i == 0 ? " WHERE " : " AND ").append(FILTER_CLAUSES[i]);
+        }
+        return sql.append(" ORDER BY ").append(orderBy).toString();
+    }
+
+    /**
+     * SQL built from a habits URI together with the arguments for its placeholders.
+     */
+    static final class CompiledQuery {
+
+        final String sql;
+        final String[] selectionArgs;
+
+        CompiledQuery(String sql, String[] selectionArgs) {
+            this.sql = sql;
+            this.selectionArgs = selectionArgs;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.android.habitapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.habitapp.data.HabitContract.HabitActivityEntry;
+import com.example.android.habitapp.data.HabitContract.HabitRollupEntry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job that keeps the habit activity table from growing without bound.
+ *
+ * Detail activity older than the configured age is summed into the weekly and monthly rollup
+ * tables and then deleted, {@link HabitContract#RETENTION_BATCH_SIZE} rows per transaction.
+ * The history URI of {@link HabitProvider} reads the rollups and the remaining detail together,
+ * so callers see the same totals before and after a run.
+ */
+public class HabitRetentionJob implements Runnable {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = HabitRetentionJob.class.getSimpleName();
+
+    /**
+     * SQL expression for the Monday, 00:00 UTC, starting the week of an activity timestamp.
+     * Day 0 of the epoch was a Thursday, so (day + 3) % 7 is the number of days since Monday.
+     */
+    static final String WEEK_START_SQL = "(" + HabitActivityEntry.COLUMN_TIMESTAMP + "/86400000"
+            + " - (" + HabitActivityEntry.COLUMN_TIMESTAMP + "/86400000 + 3) % 7) * 86400000";
+
+    /** SQL expression for the first day, 00:00 UTC, of the month of an activity timestamp. */
+    static final String MONTH_START_SQL = "CAST(strftime('%s', "
+            + HabitActivityEntry.COLUMN_TIMESTAMP + "/1000, 'unixepoch', 'start of month')"
+            + " AS INTEGER) * 1000";
+
+    /** Database helper object */
+    private final HabitDbHelper mDbHelper;
+
+    /** Detail activity older than this many milliseconds is rolled up */
+    private final long mMaxAgeMillis;
+
+    /** Maximum number of detail rows handled per transaction */
+    private final int mBatchSize;
+
+    /**
+     * Constructs a new instance of {@link HabitRetentionJob} with the retention settings of
+     * {@link HabitContract}.
+     *
+     * @param dbHelper of the database to clean up
+     */
+    public HabitRetentionJob(HabitDbHelper dbHelper) {
+        this(dbHelper, TimeUnit.DAYS.toMillis(HabitContract.RETENTION_DETAIL_MAX_AGE_DAYS),
+                HabitContract.RETENTION_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a new instance of {@link HabitRetentionJob}.
+     *
+     * @param dbHelper     of the database to clean up
+     * @param maxAgeMillis age after which detail activity is rolled up
+     * @param batchSize    maximum number of detail rows handled per transaction
+     */
+    public HabitRetentionJob(HabitDbHelper dbHelper, long maxAgeMillis, int batchSize) {
+        if (maxAgeMillis < 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("Retention requires a valid age and batch size");
+        }
+        mDbHelper = dbHelper;
+        mMaxAgeMillis = maxAgeMillis;
+        mBatchSize = batchSize;
+    }
+
+    @Override
+    public void run() {
+        long cutoff = System.currentTimeMillis() - mMaxAgeMillis;
+        int rolledUp = 0;
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            int batchRows;
+            do {
+                batchRows = rollUpBatch(database, cutoff);
+                rolledUp += batchRows;
+            } while (batchRows == mBatchSize);
+        } catch (RuntimeException e) {
+            // An executor keeps a thrown exception to itself and stops a periodic schedule.
+            // Batches that were committed stay rolled up, the rest is tried on the next run.
+            Log.e(LOG_TAG, "Failed to roll up activity older than " + cutoff + " after "
+                    + rolledUp + " rows", e);
+            return;
+        }
+
+        if (rolledUp != 0) {
+            Log.i(LOG_TAG, "Rolled up " + rolledUp + " activity rows older than " + cutoff);
+        }
+    }
+
+    /**
+     * Rolls up and deletes the next batch of detail rows older than the cutoff, in one
+     * transaction. Returns the number of detail rows that were deleted.
+     */
+    private int rollUpBatch(SQLiteDatabase database, long cutoff) {
+        database.beginTransaction();
+        try {
+            // The batch is every expired row up to the id of the batch's last expired row
+            long lastId;
+            Cursor cursor = database.rawQuery("SELECT MAX(" + HabitActivityEntry._ID + ") FROM"
+                    + " (SELECT " + HabitActivityEntry._ID + " FROM " + HabitActivityEntry.TABLE_NAME
+                    + " WHERE " + HabitActivityEntry.COLUMN_TIMESTAMP + "<?"
+                    + " ORDER BY " + HabitActivityEntry._ID + " LIMIT ?)",
+                    new String[] {String.valueOf(cutoff), String.valueOf(mBatchSize)});
+            try {
+                if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                    return 0;
+                }
+                lastId = cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+
+            String[] batchArgs = {String.valueOf(lastId), String.valueOf(cutoff)};
+            String batchWhere = " WHERE " + HabitActivityEntry._ID + "<=?"
+                    + " AND " + HabitActivityEntry.COLUMN_TIMESTAMP + "<?";
+
+            addToRollup(database, HabitRollupEntry.WEEKLY_TABLE_NAME, WEEK_START_SQL,
+                    batchWhere, batchArgs);
+            addToRollup(database, HabitRollupEntry.MONTHLY_TABLE_NAME, MONTH_START_SQL,
+                    batchWhere, batchArgs);
+
+            int deleted = database.delete(HabitActivityEntry.TABLE_NAME,
+                    HabitActivityEntry._ID + "<=? AND " + HabitActivityEntry.COLUMN_TIMESTAMP + "<?",
+                    batchArgs);
+
+            database.setTransactionSuccessful();
+            return deleted;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Adds the counts of the detail rows matching the where clause to a rollup table, grouped
+     * by habit and by the period given by the period start expression.
+     */
+    private static void addToRollup(SQLiteDatabase database, String rollupTable,
+                                    String periodStartSql, String where, String[] whereArgs) {
+        SQLiteStatement update = database.compileStatement("UPDATE " + rollupTable
+                + " SET " + HabitRollupEntry.COLUMN_COUNT + "=" + HabitRollupEntry.COLUMN_COUNT + "+?"
+                + " WHERE " + HabitRollupEntry.COLUMN_HABIT_ID + "=?"
+                + " AND " + HabitRollupEntry.COLUMN_PERIOD_START + "=?");
+        SQLiteStatement insert = database.compileStatement("INSERT INTO " + rollupTable + " ("
+                + HabitRollupEntry.COLUMN_COUNT + ", " + HabitRollupEntry.COLUMN_HABIT_ID + ", "
+                + HabitRollupEntry.COLUMN_PERIOD_START + ") VALUES (?, ?, ?)");
+        Cursor cursor = database.rawQuery("SELECT " + HabitActivityEntry.COLUMN_HABIT_ID + ", "
+                + periodStartSql + ", SUM(" + HabitActivityEntry.COLUMN_COUNT + ")"
+                + " FROM " + HabitActivityEntry.TABLE_NAME + where + " GROUP BY 1, 2", whereArgs);
+        try {
+            while (cursor.moveToNext()) {
+                long habitId = cursor.getLong(0);
+                long periodStart = cursor.getLong(1);
+                long count = cursor.getLong(2);
+
+                // Add to the existing rollup row, or create it if this is the period's first batch
+                update.bindLong(1, count);
+                update.bindLong(2, habitId);
+                update.bindLong(3, periodStart);
+                if (update.executeUpdateDelete() == 0) {
+                    insert.bindLong(1, count);
+                    insert.bindLong(2, habitId);
+                    insert.bindLong(3, periodStart);
+                    insert.executeInsert();
+                }
+            }
+        } finally {
+            cursor.close();
+            update.close();
+            insert.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.habitapp.startup;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Budgets for the phases of a cold start, and the check and report of phase durations
+ * against them.
+ *
+ * Plain Java so that the budget check runs in local unit tests. {@link StartupTimer} measures
+ * the phases on a device and hands their durations to this class.
+ */
+public final class StartupBudget {
+
+    /**
+     * Possible phases of the startup. Nested phases are measured exclusive of each other, so
+     * {@link #PHASE_INFLATE} is not part of {@link #PHASE_ACTIVITY_CREATE}.
+     */
+    public static final String PHASE_PROVIDER_CREATE = "HabitProvider.onCreate";
+    public static final String PHASE_ACTIVITY_CREATE = "CatalogActivity.onCreate";
+    public static final String PHASE_INFLATE = "CatalogActivity.setContentView";
+    public static final String PHASE_FIRST_DATABASE_OPEN = "HabitProvider database open";
+    public static final String PHASE_START_QUERIES = "CatalogActivity.onStart queries";
+
+    /** Name of the launch time that no phase accounts for in the report */
+    public static final String UNATTRIBUTED = "unattributed";
+
+    /** Name of the total launch time in the report */
+    public static final String TOTAL = "total";
+
+    /** Budget of each phase, of the unattributed time and of the total, in milliseconds */
+    private final Map<String, Long> mBudgetsMillis;
+
+    /**
+     * Constructs a new instance of {@link StartupBudget} with the app's budgets.
+     */
+    public StartupBudget() {
+        Map<String, Long> budgetsMillis = new LinkedHashMap<>();
+        budgetsMillis.put(PHASE_PROVIDER_CREATE, 20L);
+        budgetsMillis.put(PHASE_ACTIVITY_CREATE, 100L);
+        budgetsMillis.put(PHASE_INFLATE, 150L);
+        budgetsMillis.put(PHASE_FIRST_DATABASE_OPEN, 100L);
+        budgetsMillis.put(PHASE_START_QUERIES, 150L);
+        budgetsMillis.put(UNATTRIBUTED, 300L);
+        budgetsMillis.put(TOTAL, 800L);
+        mBudgetsMillis = Collections.unmodifiableMap(budgetsMillis);
+    }
+
+    /**
+     * Returns the budget of a phase in milliseconds, or null if it has none.
+     */
+    public Long getBudgetMillis(String phase) {
+        return mBudgetsMillis.get(phase);
+    }
+
+    /**
+     * Returns the durations of the report in milliseconds: the given phases, the
+     * {@link #UNATTRIBUTED} time and the {@link #TOTAL}. The phases and the unattributed time
+     * add up to the total.
+     *
+     * @param phaseNanos  exclusive duration of each phase, in nanoseconds
+     * @param totalNanos  duration of the whole launch, in nanoseconds
+     */
+    public static Map<String, Long> toReportMillis(Map<String, Long> phaseNanos, long totalNanos) {
+        Map<String, Long> reportMillis = new LinkedHashMap<>();
+        long attributedMillis = 0;
+        for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+            long millis = phase.getValue() / 1000000;
+            reportMillis.put(phase.getKey(), millis);
+            attributedMillis += millis;
+        }
+        long totalMillis = totalNanos / 1000000;
+        reportMillis.put(UNATTRIBUTED, Math.max(totalMillis - attributedMillis, 0));
+        reportMillis.put(TOTAL, totalMillis);
+        return reportMillis;
+    }
+
+    /**
+     * Returns the phases whose duration in the given map exceeds their budget, with their
+     * duration in milliseconds.
+     */
+    public Map<String, Long> findOverBudget(Map<String, Long> phaseMillis) {
+        Map<String, Long> overBudget = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> phase : phaseMillis.entrySet()) {
+            Long budget = mBudgetsMillis.get(phase.getKey());
+            if (budget != null && phase.getValue() > budget) {
+                overBudget.put(phase.getKey(), phase.getValue());
+            }
+        }
+        return overBudget;
+    }
+
+    /**
+     * Returns the report line for the given phase durations in milliseconds, in the order
+     * of the budgets. Phases over budget are marked with their budget.
+     */
+    public String buildReport(Map<String, Long> phaseMillis) {
+        Map<String, Long> overBudget = findOverBudget(phaseMillis);
+        StringBuilder report = new StringBuilder("Startup");
+        for (String phase : mBudgetsMillis.keySet()) {
+            Long millis = phaseMillis.get(phase);
+            if (millis == null) {
+                continue;
+            }
+            report.append(" [").append(phase).append("]=").append(millis).append("ms");
+            if (overBudget.containsKey(phase)) {
+                report.append(" (over budget of ").append(mBudgetsMillis.get(phase)).append("ms)");
+            }
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.android.habitapp.startup;
+
+import android.os.Looper;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measures the phases of a cold start of the app, see {@link StartupBudget} for the phases.
+ *
+ * Each phase is also a systrace section, so it shows up in a trace as well as in the report
+ * that is logged once the launch is marked finished, and that {@link #getReportMillis()}
+ * returns afterwards. The timer has no dependencies on the rest of the app, so the UI and the
+ * data layer can both mark their phases. Only phases on the
+ * main thread are timed, since only they delay the launch. A nested phase is not counted in
+ * the phase around it, and a phase that runs more than once is summed, so the phases and the
+ * unattributed rest add up to the total. A phase that takes longer than its budget is flagged
+ * in the report with a warning.
+ */
+public final class StartupTimer {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = StartupTimer.class.getSimpleName();
+
+    /** Budgets the phases are checked against */
+    private static final StartupBudget sBudget = new StartupBudget();
+
+    /** Time the process started running app code, or 0 if not marked */
+    private static long sProcessStartNanos;
+
+    /** Phases running on the main thread, innermost first */
+    private static final Deque<RunningPhase> sRunningPhases = new ArrayDeque<>();
+
+    /** Exclusive duration of the phases that are done, in nanoseconds */
+    private static final Map<String, Long> sPhaseNanos = new LinkedHashMap<>();
+
+    /** Whether the report was already logged */
+    private static boolean sFinished;
+
+    /** Durations of the finished launch in milliseconds, or null until it is finished */
+    private static Map<String, Long> sReportMillis;
+
+    // To prevent someone from accidentally instantiating the timer class,
+    // give it an empty constructor.
+    private StartupTimer() {}
+
+    /**
+     * Marks the start of the launch. Call this as early as possible in the process.
+     */
+    public static synchronized void markProcessStart() {
+        if (sProcessStartNanos == 0) {
+            sProcessStartNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Starts a phase and its systrace section. Must be followed by {@link #endPhase(String)}
+     * on the same thread, with sections of nested phases ended first.
+     */
+    public static void beginPhase(String phase) {
+        TraceCompat.beginSection(phase);
+        if (!isMainThread()) {
+            return;
+        }
+        synchronized (StartupTimer.class) {
+            if (!sFinished) {
+                sRunningPhases.push(new RunningPhase(phase, System.nanoTime()));
+            }
+        }
+    }
+
+    /**
+     * Ends a phase started with {@link #beginPhase(String)} and its systrace section.
+     */
+    public static void endPhase(String phase) {
+        if (isMainThread()) {
+            synchronized (StartupTimer.class) {
+                RunningPhase running = sRunningPhases.peek();
+                if (running != null && running.mPhase.equals(phase)) {
+                    sRunningPhases.pop();
+                    long durationNanos = System.nanoTime() - running.mStartNanos;
+
+                    // Count the time once, in the innermost phase
+                    Long previousNanos = sPhaseNanos.get(phase);
+                    sPhaseNanos.put(phase, (previousNanos == null ? 0 : previousNanos)
+                            + durationNanos - running.mNestedNanos);
+                    RunningPhase parent = sRunningPhases.peek();
+                    if (parent != null) {
+                        parent.mNestedNanos += durationNanos;
+                    }
+                }
+            }
+        }
+        TraceCompat.endSection();
+    }
+
+    /**
+     * Marks the end of the launch and logs the report. Only the first call has an effect.
+     */
+    public static void finish() {
+        String report;
+        boolean overBudget;
+        synchronized (StartupTimer.class) {
+            if (sFinished || sProcessStartNanos == 0) {
+                return;
+            }
+            sFinished = true;
+
+            sReportMillis = Collections.unmodifiableMap(StartupBudget.toReportMillis(sPhaseNanos,
+                    System.nanoTime() - sProcessStartNanos));
+            report = sBudget.buildReport(sReportMillis);
+            overBudget = !sBudget.findOverBudget(sReportMillis).isEmpty();
+        }
+
+        if (overBudget) {
+            Log.w(LOG_TAG, report);
+        } else {
+            Log.i(LOG_TAG, report);
+        }
+    }
+
+    /**
+     * Returns the measured durations of the launch in milliseconds, as checked against the
+     * {@link StartupBudget}: each phase that ran, {@link StartupBudget#UNATTRIBUTED} and
+     * {@link StartupBudget#TOTAL}. Returns null until {@link #finish()} was called.
+     */
+    public static synchronized Map<String, Long> getReportMillis() {
+        return sReportMillis;
+    }
+
+    /**
+     * Forgets all measurements and starts timing a new launch now. Lets a test time a launch
+     * of an activity in a process that is already running.
+     */
+    static synchronized void restart() {
+        sProcessStartNanos = System.nanoTime();
+        sRunningPhases.clear();
+        sPhaseNanos.clear();
+        sFinished = false;
+        sReportMillis = null;
+    }
+
+    private static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    /**
+     * A phase that is running, with the time spent in phases nested in it so far.
+     */
+    private static final class RunningPhase {
+
+        final String mPhase;
+        final long mStartNanos;
+        long mNestedNanos;
+
+        RunningPhase(String phase, long startNanos) {
+            mPhase = phase;
+            mStartNanos = startNanos;
+        }
+    }
+}
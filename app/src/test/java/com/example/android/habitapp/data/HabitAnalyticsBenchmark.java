@@ -0,0 +1,132 @@
+package com.example.android.habitapp.data;
+
+import com.example.android.habitapp.data.HabitAnalytics.HabitStats;
+import com.example.android.habitapp.data.HabitContract.HabitEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures how the partitioned scan and merge of {@link HabitAnalytics} scale with the number
+ * of threads, over millions of habits held in memory.
+ *
+ * This does not measure the database path: the rows come from arrays rather than SQLite, so it
+ * only shows the scaling of the partitioning and reduction itself. HabitAnalyticsScanBenchmark
+ * in the instrumented tests times the scans over a real table on a device.
+ *
+ * The benchmark allocates several arrays of the given row count, so it only runs when asked
+ * for, for instance with:
+ *
+ * <pre>
+ * ./gradlew testDebugUnitTest -Phabitapp.benchmark.rows=4000000 -i
+ * </pre>
+ *
+ * The timings are logged under this class's name.
+ */
+public class HabitAnalyticsBenchmark {
+
+    /** System property with the number of rows to scan, the benchmark is skipped without it */
+    private static final String PROPERTY_ROWS = "habitapp.benchmark.rows";
+
+    private static final Logger LOGGER = Logger.getLogger(HabitAnalyticsBenchmark.class.getName());
+
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    private static final int RUNS = 5;
+
+    private int mRows;
+    private int[] mDayOfWeek;
+    private int[] mTimeOfDay;
+    private int[] mFrequency;
+
+    @Before
+    public void setUp() {
+        Integer rows = Integer.getInteger(PROPERTY_ROWS);
+        assumeTrue("Set -D" + PROPERTY_ROWS + "=N to run the benchmark", rows != null);
+
+        mRows = rows;
+        mDayOfWeek = new int[mRows];
+        mTimeOfDay = new int[mRows];
+        mFrequency = new int[mRows];
+        Random random = new Random(42);
+        for (int i = 0; i < mRows; i++) {
+            mDayOfWeek[i] = random.nextInt(HabitEntry.DAYOFWEEK_UNKNOWN + 1);
+            mTimeOfDay[i] = random.nextInt(3);
+            mFrequency[i] = random.nextInt(10);
+        }
+    }
+
+    @Test
+    public void scalesAcrossCores() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        HabitStats expected = null;
+        long singleThreadNanos = 0;
+
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                long bestNanos = Long.MAX_VALUE;
+                HabitStats stats = null;
+                for (int run = 0; run < RUNS; run++) {
+                    long startNanos = System.nanoTime();
+                    stats = HabitAnalytics.computeParallel(executor,
+                            threads * PARTITIONS_PER_THREAD, 1, mRows, new InMemorySource());
+                    bestNanos = Math.min(bestNanos, System.nanoTime() - startNanos);
+                }
+
+                if (expected == null) {
+                    expected = stats;
+                    singleThreadNanos = bestNanos;
+                } else {
+                    assertSameStats(expected, stats);
+                }
+                LOGGER.info(String.format("rows=%d threads=%d bestMs=%.1f speedup=%.2f",
+                        mRows, threads, bestNanos / 1e6, singleThreadNanos / (double) bestNanos));
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        assertEquals(mRows, expected.getHabitCount());
+    }
+
+    private static void assertSameStats(HabitStats expected, HabitStats actual) {
+        assertEquals(expected.getHabitCount(), actual.getHabitCount());
+        for (int day = 0; day <= HabitEntry.DAYOFWEEK_UNKNOWN; day++) {
+            assertEquals(expected.getCountByDayOfWeek(day), actual.getCountByDayOfWeek(day));
+            assertEquals(expected.getFrequencyByDayOfWeek(day),
+                    actual.getFrequencyByDayOfWeek(day));
+        }
+        for (int timeOfDay = 0; timeOfDay < 3; timeOfDay++) {
+            assertEquals(expected.getCountByTimeOfDay(timeOfDay),
+                    actual.getCountByTimeOfDay(timeOfDay));
+            assertEquals(expected.getFrequencyByTimeOfDay(timeOfDay),
+                    actual.getFrequencyByTimeOfDay(timeOfDay));
+        }
+    }
+
+    /**
+     * Serves the rows from the arrays, with _id i + 1 stored at index i.
+     */
+    private class InMemorySource implements HabitAnalytics.PartitionSource {
+
+        @Override
+        public HabitStats scan(long start, long end) {
+            HabitStats stats = new HabitStats();
+            int from = (int) Math.max(start - 1, 0);
+            int to = (int) Math.min(end - 1, mRows);
+            for (int i = from; i < to; i++) {
+                stats.add(mDayOfWeek[i], mTimeOfDay[i], mFrequency[i]);
+            }
+            return stats;
+        }
+    }
+}
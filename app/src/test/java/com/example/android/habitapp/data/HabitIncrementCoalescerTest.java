@@ -0,0 +1,232 @@
+package com.example.android.habitapp.data;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link HabitIncrementCoalescer} adds up concurrent taps with far fewer writes
+ * than taps and that no tap is lost when a write fails or the coalescer is closed mid-write.
+ */
+public class HabitIncrementCoalescerTest {
+
+    private static final int THREADS = 8;
+    private static final int TAPS_PER_THREAD = 2000;
+    private static final int HABITS = 4;
+
+    @Test
+    public void concurrentTapsAreSummedWithFewerWrites() throws Exception {
+        final RecordingWriter writer = new RecordingWriter(0);
+        final HabitIncrementCoalescer coalescer = new HabitIncrementCoalescer(writer, 20);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < TAPS_PER_THREAD; i++) {
+                        coalescer.increment(i % HABITS);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        coalescer.close();
+
+        int taps = THREADS * TAPS_PER_THREAD;
+        for (long habitId = 0; habitId < HABITS; habitId++) {
+            assertEquals(taps / HABITS, writer.getTotal(habitId));
+        }
+        assertTrue("writes=" + writer.getWriteCount() + " taps=" + taps,
+                writer.getWriteCount() < taps / 10);
+    }
+
+    @Test
+    public void failedFlushKeepsUnwrittenDeltas() {
+        RecordingWriter writer = new RecordingWriter(1);
+        // A long window, so only the explicit flushes below write
+        HabitIncrementCoalescer coalescer = new HabitIncrementCoalescer(writer, 60000);
+        coalescer.add(1, 3);
+        coalescer.add(2, 5);
+        coalescer.add(3, -2);
+
+        try {
+            coalescer.flush();
+            fail("Expected the first write to fail");
+        } catch (IllegalStateException expected) {
+            // The failed delta and the ones after it are kept
+        }
+        coalescer.add(1, 1);
+        coalescer.close();
+
+        assertEquals(4, writer.getTotal(1));
+        assertEquals(5, writer.getTotal(2));
+        assertEquals(-2, writer.getTotal(3));
+    }
+
+    @Test
+    public void scheduledFlushRetriesAfterFailure() throws Exception {
+        RecordingWriter writer = new RecordingWriter(2);
+        HabitIncrementCoalescer coalescer = new HabitIncrementCoalescer(writer, 10);
+        coalescer.add(7, 4);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getTotal(7) != 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        coalescer.close();
+        assertEquals(4, writer.getTotal(7));
+    }
+
+    @Test
+    public void closeWaitsForWriteInFlight() throws Exception {
+        BlockingWriter writer = new BlockingWriter(false);
+        final HabitIncrementCoalescer coalescer = new HabitIncrementCoalescer(writer, 10);
+        coalescer.add(1, 3);
+        writer.awaitBlocked();
+        // Arrives while the scheduled flush is writing habit 1
+        coalescer.add(2, 5);
+
+        Thread closer = closeInBackground(coalescer);
+        Thread.sleep(100);
+        assertTrue("close() returned during a write", closer.isAlive());
+
+        writer.release();
+        closer.join();
+        assertEquals(3, writer.getTotal(1));
+        assertEquals(5, writer.getTotal(2));
+    }
+
+    @Test
+    public void closeWritesWhatFailedInFlight() throws Exception {
+        BlockingWriter writer = new BlockingWriter(true);
+        HabitIncrementCoalescer coalescer = new HabitIncrementCoalescer(writer, 10);
+        coalescer.add(1, 3);
+        writer.awaitBlocked();
+
+        Thread closer = closeInBackground(coalescer);
+        writer.release();
+        closer.join();
+        assertEquals(3, writer.getTotal(1));
+    }
+
+    @Test
+    public void addAfterCloseIsRejected() {
+        HabitIncrementCoalescer coalescer = new HabitIncrementCoalescer(new RecordingWriter(0), 10);
+        coalescer.close();
+        try {
+            coalescer.increment(1);
+            fail("Expected an increment after close to be rejected");
+        } catch (IllegalStateException expected) {
+            // The tap is not silently dropped
+        }
+    }
+
+    private static Thread closeInBackground(final HabitIncrementCoalescer coalescer) {
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                coalescer.close();
+            }
+        });
+        closer.start();
+        return closer;
+    }
+
+    /**
+     * Blocks the first write until released, then fails it if asked to, and sums the written
+     * deltas per habit.
+     */
+    private static final class BlockingWriter implements HabitIncrementCoalescer.Writer {
+
+        private final CountDownLatch mBlocked = new CountDownLatch(1);
+        private final CountDownLatch mReleased = new CountDownLatch(1);
+        private final boolean mFailFirstWrite;
+        private final RecordingWriter mRecorder = new RecordingWriter(0);
+
+        BlockingWriter(boolean failFirstWrite) {
+            mFailFirstWrite = failFirstWrite;
+        }
+
+        @Override
+        public int addToFrequency(long habitId, int delta) {
+            if (mBlocked.getCount() > 0) {
+                mBlocked.countDown();
+                try {
+                    mReleased.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                if (mFailFirstWrite) {
+                    throw new IllegalStateException("Simulated write failure");
+                }
+            }
+            return mRecorder.addToFrequency(habitId, delta);
+        }
+
+        void awaitBlocked() throws InterruptedException {
+            assertTrue("No write started",
+                    mBlocked.await(5, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            mReleased.countDown();
+        }
+
+        long getTotal(long habitId) {
+            return mRecorder.getTotal(habitId);
+        }
+    }
+
+    /**
+     * Sums the written deltas per habit, after throwing on the given number of first writes.
+     */
+    private static final class RecordingWriter implements HabitIncrementCoalescer.Writer {
+
+        private final Map<Long, Long> mTotals = new HashMap<>();
+        private final AtomicInteger mFailuresLeft;
+        private int mWriteCount;
+
+        RecordingWriter(int failures) {
+            mFailuresLeft = new AtomicInteger(failures);
+        }
+
+        @Override
+        public synchronized int addToFrequency(long habitId, int delta) {
+            if (mFailuresLeft.getAndDecrement() > 0) {
+                throw new IllegalStateException("Simulated write failure");
+            }
+            Long total = mTotals.get(habitId);
+            mTotals.put(habitId, total == null ? delta : total + delta);
+            mWriteCount++;
+            return 1;
+        }
+
+        synchronized long getTotal(long habitId) {
+            Long total = mTotals.get(habitId);
+            return total == null ? 0 : total;
+        }
+
+        synchronized int getWriteCount() {
+            return mWriteCount;
+        }
+    }
+}
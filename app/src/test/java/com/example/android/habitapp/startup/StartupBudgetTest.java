@@ -0,0 +1,105 @@
+package com.example.android.habitapp.startup;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link StartupBudget} turns phase durations into a report and finds the phases
+ * over budget. The budgets are enforced on measured launches by CatalogStartupTest in the
+ * instrumented tests.
+ */
+public class StartupBudgetTest {
+
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private final StartupBudget mBudget = new StartupBudget();
+
+    @Test
+    public void launchWithinBudgetHasNoBreaches() {
+        Map<String, Long> reportMillis = StartupBudget.toReportMillis(
+                phaseNanos(10, 60, 90, 40, 80), 400 * NANOS_PER_MILLI);
+
+        assertTrue(mBudget.findOverBudget(reportMillis).isEmpty());
+    }
+
+    @Test
+    public void slowPhaseIsReportedOverBudget() {
+        Map<String, Long> reportMillis = StartupBudget.toReportMillis(
+                phaseNanos(10, 60, 90, 40, 180), 500 * NANOS_PER_MILLI);
+
+        Map<String, Long> overBudget = mBudget.findOverBudget(reportMillis);
+        assertEquals(1, overBudget.size());
+        assertEquals(Long.valueOf(180), overBudget.get(StartupBudget.PHASE_START_QUERIES));
+        assertTrue(mBudget.buildReport(reportMillis).contains(
+                "[" + StartupBudget.PHASE_START_QUERIES + "]=180ms (over budget of 150ms)"));
+    }
+
+    @Test
+    public void phaseAtItsBudgetIsNotABreach() {
+        long budget = mBudget.getBudgetMillis(StartupBudget.PHASE_INFLATE);
+        Map<String, Long> reportMillis = StartupBudget.toReportMillis(
+                phaseNanos(10, 60, budget, 40, 80), 500 * NANOS_PER_MILLI);
+
+        assertFalse(mBudget.findOverBudget(reportMillis).containsKey(StartupBudget.PHASE_INFLATE));
+    }
+
+    @Test
+    public void phasesAndUnattributedAddUpToTotal() {
+        Map<String, Long> reportMillis = StartupBudget.toReportMillis(
+                phaseNanos(10, 60, 90, 40, 80), 400 * NANOS_PER_MILLI + 999999);
+
+        long sum = 0;
+        for (Map.Entry<String, Long> phase : reportMillis.entrySet()) {
+            if (!StartupBudget.TOTAL.equals(phase.getKey())) {
+                sum += phase.getValue();
+            }
+        }
+        assertEquals(Long.valueOf(120), reportMillis.get(StartupBudget.UNATTRIBUTED));
+        assertEquals(Long.valueOf(400), reportMillis.get(StartupBudget.TOTAL));
+        assertEquals(400, sum);
+    }
+
+    @Test
+    public void timeOutsideThePhasesIsReportedAsUnattributed() {
+        Map<String, Long> reportMillis = StartupBudget.toReportMillis(
+                phaseNanos(10, 60, 90, 40, 80), 700 * NANOS_PER_MILLI);
+
+        Map<String, Long> overBudget = mBudget.findOverBudget(reportMillis);
+        assertEquals(1, overBudget.size());
+        assertEquals(Long.valueOf(420), overBudget.get(StartupBudget.UNATTRIBUTED));
+    }
+
+    @Test
+    public void slowTotalIsReportedOverBudget() {
+        Map<String, Long> reportMillis = StartupBudget.toReportMillis(
+                phaseNanos(20, 100, 150, 100, 150), 900 * NANOS_PER_MILLI);
+
+        Map<String, Long> overBudget = mBudget.findOverBudget(reportMillis);
+        assertEquals(2, overBudget.size());
+        assertEquals(Long.valueOf(380), overBudget.get(StartupBudget.UNATTRIBUTED));
+        assertEquals(Long.valueOf(900), overBudget.get(StartupBudget.TOTAL));
+    }
+
+    /**
+     * Returns the exclusive durations of the phases in the order of a launch, from
+     * milliseconds.
+     */
+    private static Map<String, Long> phaseNanos(long providerCreate, long activityCreate,
+                                                long inflate, long firstDatabaseOpen,
+                                                long startQueries) {
+        Map<String, Long> phaseNanos = new LinkedHashMap<>();
+        phaseNanos.put(StartupBudget.PHASE_PROVIDER_CREATE, providerCreate * NANOS_PER_MILLI);
+        phaseNanos.put(StartupBudget.PHASE_ACTIVITY_CREATE, activityCreate * NANOS_PER_MILLI);
+        phaseNanos.put(StartupBudget.PHASE_INFLATE, inflate * NANOS_PER_MILLI);
+        phaseNanos.put(StartupBudget.PHASE_FIRST_DATABASE_OPEN,
+                firstDatabaseOpen * NANOS_PER_MILLI);
+        phaseNanos.put(StartupBudget.PHASE_START_QUERIES, startQueries * NANOS_PER_MILLI);
+        return phaseNanos;
+    }
+}